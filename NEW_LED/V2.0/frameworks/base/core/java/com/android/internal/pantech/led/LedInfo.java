@@ -52,13 +52,18 @@ public class LedInfo implements Parcelable {
     public int mOption;
 
     /* for periodic */
-    public int[] mColor = new int[LED_COUNT];
+    public int[] mColor;
     public int mOnMs;
     public int mOffMs;
 
     /* for one-shot */
     public int[][] mPattern;
     public int mRepeat;
+    // compiled from mPattern on first use, see getCompiledPattern()
+    private LedPattern mCompiledPattern;
+    // LedPattern.hashOf(mPattern) once computed, see getPatternHash()
+    private int mPatternHash;
+    private boolean mPatternHashValid;
 
     public static final int BLACK   = 0x00000000;
     public static final int WHITE   = 0x00FFFFFF;
@@ -106,7 +111,13 @@ public class LedInfo implements Parcelable {
     }   
 
     public LedInfo(Parcel parcel) {
-        mPeriodicity = (parcel.readInt() == 1) ? true : false;
+        final int header = parcel.readInt();
+        if(header == LedWireFormat.MAGIC_V2) {
+            readFromParcelV2(parcel);
+            return;
+        }
+        // v1 layout, the header is the periodicity
+        mPeriodicity = (header == 1) ? true : false;
         mAppId = parcel.readInt();
         mOption = parcel.readInt();
         if(mPeriodicity) {
@@ -116,19 +127,37 @@ public class LedInfo implements Parcelable {
         }
         else {
             final int nPattern = parcel.readInt();
-            final int color[] = parcel.createIntArray();
-            mPattern = new int[nPattern][color.length];
-            mPattern[0] = color;
-            for(int i=1; i<nPattern; i++) {
+            mPattern = new int[nPattern][];
+            for(int i=0; i<nPattern; i++) {
                 mPattern[i] = parcel.createIntArray();
             }
             mRepeat = parcel.readInt();
         }
     }
 
+    private void readFromParcelV2(Parcel parcel) {
+        final int flags = parcel.readInt();
+        mPeriodicity = (flags & LedWireFormat.FLAG_PERIODIC) != 0;
+        mAppId = parcel.readInt();
+        mOption = parcel.readInt();
+        if(mPeriodicity) {
+            mColor = parcel.createIntArray();
+            mOnMs = parcel.readInt();
+            mOffMs = parcel.readInt();
+        }
+        else {
+            final int nPattern = parcel.readInt();
+            mRepeat = parcel.readInt();
+            // null if malformed, LedManagerService rejects the event
+            mPattern = LedWireFormat.readPattern(parcel, nPattern);
+        }
+    }
+
     public void setPattern(int[][] pattern) {
         if(!mPeriodicity) {
             mPattern = pattern;
+            mCompiledPattern = null;
+            mPatternHashValid = false;
             return;
         }
         throw new IllegalArgumentException("only One-shot event use setPattern()");
@@ -160,6 +189,58 @@ public class LedInfo implements Parcelable {
         return null;
     }
     
+    /**
+     * Compiled form of the one-shot pattern. It is built once and cached, changes made
+     * to mPattern after the first call are not seen unless setPattern() is used.
+     *
+     * @return null for periodic event
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    public LedPattern getCompiledPattern() {
+        if(mPeriodicity) {
+            return null;
+        }
+        if(mCompiledPattern == null) {
+            mCompiledPattern = LedPattern.compile(mPattern);
+        }
+        return mCompiledPattern;
+    }
+
+    /**
+     * Content hash of the one-shot pattern, the hashCode() of its compiled form. Taken
+     * from the compiled pattern when there is one, otherwise computed once and kept,
+     * with the same caveat as getCompiledPattern().
+     */
+    public int getPatternHash() {
+        if(mCompiledPattern != null) {
+            return mCompiledPattern.hashCode();
+        }
+        if(!mPatternHashValid) {
+            mPatternHash = LedPattern.hashOf(mPattern);
+            mPatternHashValid = true;
+        }
+        return mPatternHash;
+    }
+
+    /**
+     * @return the compiled pattern if it was built or set already, without compiling it
+     */
+    public LedPattern peekCompiledPattern() {
+        return mCompiledPattern;
+    }
+
+    /**
+     * Use an already compiled pattern, e.g. a shared instance with the same content.
+     * The caller must make sure it matches mPattern.
+     */
+    public void setCompiledPattern(LedPattern pattern) {
+        if(!mPeriodicity) {
+            mCompiledPattern = pattern;
+            return;
+        }
+        throw new IllegalArgumentException("only One-shot event use setCompiledPattern()");
+    }
+
     public boolean isPeriodicEvent() {
         return mPeriodicity;
     }
@@ -188,7 +269,34 @@ public class LedInfo implements Parcelable {
         return false;
     }
 
+    /**
+     * Writes the v2 layout: LedWireFormat.MAGIC_V2, flags, appId, option, then the color
+     * array, onMs and offMs of a periodic event, or the frame count, repeat and the
+     * LedWireFormat encoded pattern of a one-shot event.
+     * A pattern whose rows do not all have the flat layout is written in the v1 layout.
+     */
     public void writeToParcel(Parcel parcel, int flags) {
+        if(!mPeriodicity && !LedWireFormat.isFlat(mPattern)) {
+            writeToParcelV1(parcel);
+            return;
+        }
+        parcel.writeInt(LedWireFormat.MAGIC_V2);
+        parcel.writeInt(mPeriodicity ? LedWireFormat.FLAG_PERIODIC : 0);
+        parcel.writeInt(mAppId);
+        parcel.writeInt(mOption);
+        if(mPeriodicity) {
+            parcel.writeIntArray(mColor);
+            parcel.writeInt(mOnMs);
+            parcel.writeInt(mOffMs);
+        }
+        else {
+            parcel.writeInt(mPattern.length);
+            parcel.writeInt(mRepeat);
+            LedWireFormat.writePattern(parcel, mPattern);
+        }
+    }
+
+    void writeToParcelV1(Parcel parcel) {
         parcel.writeInt(mPeriodicity ? 1 : 0);
         parcel.writeInt(mAppId);
         parcel.writeInt(mOption);
@@ -199,7 +307,7 @@ public class LedInfo implements Parcelable {
             parcel.writeInt(mOffMs);
         }
         else {
-            final int N = mPattern.length;
+            final int N = mPattern != null ? mPattern.length : 0;
             parcel.writeInt(N);
             for(int i=0; i<N; i++) {
                 parcel.writeIntArray(mPattern[i]);
@@ -73,4 +73,60 @@ public class LedManager {
             Log.e(TAG, "Dead object in removeEvent" + e);
         }
     }
+
+    /**
+     * Post an event without waiting for the service.
+     * <p>
+     * postEventAsync and removeEventAsync calls from this LedManager are applied in the
+     * order they were called. They are not ordered against the other methods: a
+     * postEvent, removeEvent, postEvents or removeEvents may be applied before async
+     * calls made earlier. A caller should not mix both kinds for the same appId.
+     */
+    public void postEventAsync(LedInfo ledInfo, int flag) {
+        ILedManager service = getService();
+        try {
+            service.postEventAsync(ledInfo, LED_FLAG_REPLACE, mToken);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Dead object in postEventAsync" + e);
+        }
+    }
+
+    /**
+     * Remove an event without waiting for the service, ordered like
+     * {@link #postEventAsync}.
+     */
+    public void removeEventAsync(LedInfo ledInfo) {
+        ILedManager service = getService();
+        try {
+            service.removeEventAsync(ledInfo, mToken);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Dead object in removeEventAsync" + e);
+        }
+    }
+
+    /**
+     * Post several events in one transaction. The led is updated once after all of them
+     * are queued.
+     */
+    public void postEvents(LedInfo[] ledInfos, int flag) {
+        ILedManager service = getService();
+        try {
+            service.postEvents(ledInfos, LED_FLAG_REPLACE, mToken);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Dead object in postEvents" + e);
+        }
+    }
+
+    /**
+     * Remove several events in one transaction. The led is updated once after all of them
+     * are removed.
+     */
+    public void removeEvents(LedInfo[] ledInfos) {
+        ILedManager service = getService();
+        try {
+            service.removeEvents(ledInfos, mToken);
+        } catch (RemoteException e) {
+            Log.e(TAG, "Dead object in removeEvents" + e);
+        }
+    }
 }
@@ -0,0 +1,189 @@
+package com.android.internal.pantech.led;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Compiled, immutable form of a one-shot pattern.
+ * </p>
+ *
+ * Frames are kept in one flat array with a fixed stride of {@link #STRIDE}: the duration
+ * of the frame followed by {@link LedInfo#LED_COUNT} colors, the same layout as a row of
+ * {@link LedInfo#mPattern}. The start time of every frame and the content hash are
+ * computed once, so an instance can be shared freely and frame lookup is an indexed load.
+ *
+ * {@hide}
+ */
+public final class LedPattern {
+
+    public static final int STRIDE = LedInfo.LED_COUNT + 1;
+
+    private final int[] mFrames;
+    private final int mFrameCount;
+    // start time of each frame, mStarts[mFrameCount] is the total duration
+    private final int[] mStarts;
+    private final int mHash;
+
+    private LedPattern(int[] frames, int frameCount) {
+        mFrames = frames;
+        mFrameCount = frameCount;
+        mStarts = new int[frameCount + 1];
+        long start = 0;
+        for(int i=0; i<frameCount; i++) {
+            mStarts[i] = (int)start;
+            start += frames[i * STRIDE];
+        }
+        if(start > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("pattern too long");
+        }
+        mStarts[frameCount] = (int)start;
+        mHash = Arrays.hashCode(frames);
+    }
+
+    /**
+     * Compile the jagged pattern of a one-shot LedInfo.
+     *
+     * @throws IllegalArgumentException if a row is missing, has the wrong length or a
+     *         negative duration.
+     */
+    public static LedPattern compile(int[][] pattern) {
+        if(pattern == null || pattern.length == 0) {
+            throw new IllegalArgumentException("empty pattern");
+        }
+        final int N = pattern.length;
+        int[] frames = new int[N * STRIDE];
+        for(int i=0; i<N; i++) {
+            final int[] row = pattern[i];
+            if(row == null || row.length != STRIDE || row[0] < 0) {
+                throw new IllegalArgumentException("invalid pattern row " + i);
+            }
+            System.arraycopy(row, 0, frames, i * STRIDE, STRIDE);
+        }
+        return new LedPattern(frames, N);
+    }
+
+    /**
+     * Content hash of a jagged pattern, equal to hashCode() of its compiled form.
+     * Lets a cache look up a pattern without compiling it first.
+     */
+    public static int hashOf(int[][] pattern) {
+        int hash = 1;
+        if(pattern == null) {
+            return hash;
+        }
+        for(int[] row : pattern) {
+            if(row == null) {
+                continue;
+            }
+            for(int value : row) {
+                hash = 31 * hash + value;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return true if the jagged pattern compiles to this one.
+     */
+    public boolean contentEquals(int[][] pattern) {
+        if(pattern == null || pattern.length != mFrameCount) {
+            return false;
+        }
+        for(int i=0; i<mFrameCount; i++) {
+            final int[] row = pattern[i];
+            if(row == null || row.length != STRIDE) {
+                return false;
+            }
+            final int base = i * STRIDE;
+            for(int j=0; j<STRIDE; j++) {
+                if(row[j] != mFrames[base + j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return approximate heap size of this instance in bytes.
+     */
+    public int getFootprint() {
+        // object header and fields, plus two int arrays with their headers
+        return 32 + (16 + mFrames.length * 4) + (16 + mStarts.length * 4);
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    public int getDuration(int frame) {
+        return mFrames[frame * STRIDE];
+    }
+
+    public int getColor(int frame, int led) {
+        return mFrames[frame * STRIDE + 1 + led];
+    }
+
+    /**
+     * @return index in {@link #getFrames()} of the first color of the frame.
+     */
+    public int getColorOffset(int frame) {
+        return frame * STRIDE + 1;
+    }
+
+    /**
+     * @return the backing array. Shared, must not be modified.
+     */
+    public int[] getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * @return start time of the frame from the beginning of the pattern, in ms.
+     *         getFrameStart(getFrameCount()) is the total duration.
+     */
+    public int getFrameStart(int frame) {
+        return mStarts[frame];
+    }
+
+    /**
+     * Binary search in the frame start times.
+     *
+     * @param time ms from the beginning of the pattern, at least 0
+     * @return the last frame starting at or before time, the last frame if time is past
+     *         the end. A zero length frame is skipped for the frame after it.
+     */
+    public int frameAt(int time) {
+        int frame = Arrays.binarySearch(mStarts, 0, mFrameCount, time);
+        if(frame < 0) {
+            // the insertion point is the first frame starting after time
+            return -frame - 2;
+        }
+        // several frames can start at time if some have no duration, take the last
+        while(frame + 1 < mFrameCount && mStarts[frame + 1] == time) {
+            frame++;
+        }
+        return frame;
+    }
+
+    public int getTotalDuration() {
+        return mStarts[mFrameCount];
+    }
+
+    @Override
+    public int hashCode() {
+        return mHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) {
+            return true;
+        }
+        if(!(o instanceof LedPattern)) {
+            return false;
+        }
+        LedPattern other = (LedPattern)o;
+        return mHash == other.mHash && Arrays.equals(mFrames, other.mFrames);
+    }
+}
@@ -0,0 +1,264 @@
+package com.android.internal.pantech.led;
+
+import android.os.Parcel;
+
+/**
+ * <p>
+ * Compact encoding of a one-shot pattern for the v2 LedInfo parcel layout.
+ * </p>
+ *
+ * The pattern goes into one byte stream: a mode byte, the frame durations as unsigned
+ * varints, then the colors of every frame in row order. In {@link #MODE_PALETTE} the
+ * distinct colors are written once as varints and each color is a one byte index,
+ * in {@link #MODE_RAW} every color is a varint. The writer picks the smaller one.
+ *
+ * {@hide}
+ */
+final class LedWireFormat {
+
+    /** First int of a v2 parcel. The v1 layout starts with 0 or 1. */
+    static final int MAGIC_V2 = 0x4c454432; // "LED2"
+
+    static final int FLAG_PERIODIC = 1;
+
+    static final int MODE_RAW = 0;
+    static final int MODE_PALETTE = 1;
+
+    // an index is one byte
+    private static final int MAX_PALETTE = 256;
+    // patterns use a handful of colors, the writer gives up on the palette past this
+    private static final int WRITER_PALETTE = 16;
+
+    private LedWireFormat() {
+    }
+
+    /**
+     * @return true if every row has the flat layout, a duration and LED_COUNT colors.
+     *         Anything else goes in the v1 layout, which keeps rows as they are.
+     */
+    static boolean isFlat(int[][] pattern) {
+        if(pattern == null || pattern.length == 0) {
+            return false;
+        }
+        for(int[] row : pattern) {
+            if(row == null || row.length != LedPattern.STRIDE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static byte[] encode(int[][] pattern) {
+        // one pass for the raw size and the palette, searched linearly
+        int[] palette = new int[WRITER_PALETTE];
+        int paletteSize = 0;
+        boolean paletteFits = true;
+        int size = 1;
+        int rawSize = 0;
+        for(int[] row : pattern) {
+            size += varintSize(row[0]);
+            for(int i=1; i<LedPattern.STRIDE; i++) {
+                final int color = row[i];
+                rawSize += varintSize(color);
+                if(paletteFits && indexOf(palette, paletteSize, color) < 0) {
+                    if(paletteSize == WRITER_PALETTE) {
+                        paletteFits = false;
+                    } else {
+                        palette[paletteSize++] = color;
+                    }
+                }
+            }
+        }
+        int paletteBytes = Integer.MAX_VALUE;
+        if(paletteFits) {
+            paletteBytes = varintSize(paletteSize) + pattern.length * LedInfo.LED_COUNT;
+            for(int i=0; i<paletteSize; i++) {
+                paletteBytes += varintSize(palette[i]);
+            }
+        }
+        final boolean usePalette = paletteBytes < rawSize;
+
+        byte[] out = new byte[size + (usePalette ? paletteBytes : rawSize)];
+        int pos = 0;
+        out[pos++] = (byte)(usePalette ? MODE_PALETTE : MODE_RAW);
+        for(int[] row : pattern) {
+            pos = writeVarint(out, pos, row[0]);
+        }
+        if(usePalette) {
+            pos = writeVarint(out, pos, paletteSize);
+            for(int i=0; i<paletteSize; i++) {
+                pos = writeVarint(out, pos, palette[i]);
+            }
+            for(int[] row : pattern) {
+                for(int i=1; i<LedPattern.STRIDE; i++) {
+                    out[pos++] = (byte)indexOf(palette, paletteSize, row[i]);
+                }
+            }
+        } else {
+            for(int[] row : pattern) {
+                for(int i=1; i<LedPattern.STRIDE; i++) {
+                    pos = writeVarint(out, pos, row[i]);
+                }
+            }
+        }
+        return out;
+    }
+
+    private static int indexOf(int[] palette, int size, int color) {
+        for(int i=0; i<size; i++) {
+            if(palette[i] == color) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Write the encoded pattern as its length followed by the bytes packed four per int,
+     * low byte first, so the reader can unpack them with readInt and no byte array.
+     */
+    static void writePattern(Parcel parcel, int[][] pattern) {
+        final byte[] data = encode(pattern);
+        parcel.writeInt(data.length);
+        for(int i=0; i<data.length; i+=4) {
+            int word = 0;
+            for(int j=Math.min(data.length - i, 4) - 1; j>=0; j--) {
+                word = (word << 8) | (data[i + j] & 0xFF);
+            }
+            parcel.writeInt(word);
+        }
+    }
+
+    /**
+     * Decode straight from the parcel into the rows that are kept. Besides them only a
+     * small reader and, in palette mode, the palette are allocated.
+     *
+     * @return the pattern, or null if the data is malformed
+     */
+    static int[][] readPattern(Parcel parcel, int frameCount) {
+        final int length = parcel.readInt();
+        // every frame takes at least one byte per duration and per color
+        if(length < 1 || length > parcel.dataAvail() || frameCount <= 0
+                || frameCount > length / LedPattern.STRIDE) {
+            return null;
+        }
+        final Reader in = new Reader(parcel, length);
+        final int[][] pattern = decode(in, frameCount);
+        // keep the parcel aligned on what follows, whatever was left unread
+        in.skipRest();
+        return in.mBad ? null : pattern;
+    }
+
+    private static int[][] decode(Reader in, int frameCount) {
+        final int mode = in.readByte();
+        int[][] pattern = new int[frameCount][];
+        for(int f=0; f<frameCount; f++) {
+            final int[] row = new int[LedPattern.STRIDE];
+            row[0] = in.readVarint();
+            pattern[f] = row;
+        }
+        if(mode == MODE_PALETTE) {
+            final int paletteSize = in.readVarint();
+            if(paletteSize <= 0 || paletteSize > MAX_PALETTE
+                    || in.mRemaining < paletteSize + frameCount * LedInfo.LED_COUNT) {
+                return null;
+            }
+            final int[] palette = new int[paletteSize];
+            for(int i=0; i<paletteSize; i++) {
+                palette[i] = in.readVarint();
+            }
+            for(int[] row : pattern) {
+                for(int i=1; i<LedPattern.STRIDE; i++) {
+                    final int index = in.readByte();
+                    if(index >= paletteSize) {
+                        return null;
+                    }
+                    row[i] = palette[index];
+                }
+            }
+        } else if(mode == MODE_RAW) {
+            for(int[] row : pattern) {
+                for(int i=1; i<LedPattern.STRIDE; i++) {
+                    row[i] = in.readVarint();
+                }
+            }
+        } else {
+            return null;
+        }
+        return in.mRemaining == 0 ? pattern : null;
+    }
+
+    static int varintSize(int value) {
+        int size = 1;
+        while((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while((value & ~0x7F) != 0) {
+            out[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte)value;
+        return pos;
+    }
+
+    /**
+     * Bytes of a pattern written by writePattern, read one int at a time. Reading past
+     * the end or an overlong varint sets mBad and returns 0 from then on.
+     */
+    private static final class Reader {
+        private final Parcel mParcel;
+        int mRemaining;
+        private int mWord;
+        private int mWordBytes;
+        boolean mBad;
+
+        Reader(Parcel parcel, int length) {
+            mParcel = parcel;
+            mRemaining = length;
+        }
+
+        int readByte() {
+            if(mRemaining == 0) {
+                mBad = true;
+                return 0;
+            }
+            if(mWordBytes == 0) {
+                mWord = mParcel.readInt();
+                mWordBytes = 4;
+            }
+            final int b = mWord & 0xFF;
+            mWord >>>= 8;
+            mWordBytes--;
+            mRemaining--;
+            return b;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for(int shift=0; shift<35 && !mBad; shift+=7) {
+                final int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            mBad = true;
+            return 0;
+        }
+
+        void skipRest() {
+            // whole ints only, the partial word in hand is already consumed
+            final int words = (mRemaining - mWordBytes + 3) / 4;
+            for(int i=0; i<words; i++) {
+                mParcel.readInt();
+            }
+            mRemaining = 0;
+            mWordBytes = 0;
+        }
+    }
+}
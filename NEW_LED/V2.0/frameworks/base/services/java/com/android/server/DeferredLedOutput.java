@@ -0,0 +1,110 @@
+package com.android.server;
+
+import com.android.internal.pantech.led.LedInfo;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * LedOutput that opens the real output off the caller's thread.
+ *
+ * Opening the lights HAL (hw_get_module and the device open) would otherwise run in
+ * the LedManagerService constructor, on the serial boot path of SystemServer. Until
+ * the target is open only the last frame is kept; it is written first thing once the
+ * target is ready, so the leds end up in the state the scheduler asked for.
+ * Patterns are played frame by frame until then.
+ */
+class DeferredLedOutput implements LedOutput {
+
+    private static final String TAG = "DeferredLedOutput";
+
+    // written once, after the buffered frame has been replayed
+    private volatile LedOutput mTarget;
+    private boolean mFramePending;
+    private final int[] mColors = new int[LedInfo.LED_COUNT];
+    private int mOnMs;
+    private int mOffMs;
+    private int mOption;
+    private long mOpenMs = -1;
+
+    /**
+     * Open the target on the handler thread.
+     */
+    void openAsync(Handler handler) {
+        handler.post(new Runnable() {
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /** Creates the target, called once on the open thread. */
+    protected LedOutput createTarget() {
+        return new NativeLedOutput();
+    }
+
+    private void open() {
+        final long start = SystemClock.uptimeMillis();
+        LedOutput target;
+        try {
+            target = createTarget();
+        } catch(Throwable e) {
+            // stay in buffering mode, the leds are not usable but the service is
+            Log.e(TAG, "Failure opening led output", e);
+            return;
+        }
+        synchronized(this) {
+            if(mFramePending) {
+                mFramePending = false;
+                target.setFrame(mColors, 0, mOnMs, mOffMs, mOption);
+            }
+            mOpenMs = SystemClock.uptimeMillis() - start;
+            mTarget = target;
+        }
+        Log.i(TAG, "led output ready in " + mOpenMs + "ms");
+    }
+
+    public void setFrame(int[] colors, int offset, int onMs, int offMs, int option) {
+        LedOutput target = mTarget;
+        if(target == null) {
+            synchronized(this) {
+                target = mTarget;
+                if(target == null) {
+                    System.arraycopy(colors, offset, mColors, 0, LedInfo.LED_COUNT);
+                    mOnMs = onMs;
+                    mOffMs = offMs;
+                    mOption = option;
+                    mFramePending = true;
+                    return;
+                }
+            }
+        }
+        target.setFrame(colors, offset, onMs, offMs, option);
+    }
+
+    public boolean hasPatternPlayer() {
+        final LedOutput target = mTarget;
+        return target != null && target.hasPatternPlayer();
+    }
+
+    public boolean playPattern(int[] frames, int frameCount, int stride, int repeat, int option) {
+        final LedOutput target = mTarget;
+        return target != null && target.playPattern(frames, frameCount, stride, repeat, option);
+    }
+
+    public void stopPattern() {
+        final LedOutput target = mTarget;
+        if(target != null) {
+            target.stopPattern();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        if(mTarget == null) {
+            return "opening, frame pending : " + mFramePending;
+        }
+        return "ready, opened in " + mOpenMs + "ms";
+    }
+}
@@ -0,0 +1,85 @@
+package com.android.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import com.android.internal.pantech.led.LedInfo;
+
+import android.util.Log;
+
+/**
+ * LedOutput that writes frames to a regular file the way the lights HAL writes its
+ * batch attribute: "r g b r g b ...\n" for every led, in one write at offset 0.
+ *
+ * Used to measure the service with a real file write per frame on a host. The file is
+ * kept open, like the HAL keeps its sysfs fds. Patterns are always played frame by frame.
+ */
+class FakeSysfsLedOutput implements LedOutput {
+
+    private static final String TAG = "FakeSysfsLedOutput";
+
+    private final File mFile;
+    private final RandomAccessFile mOut;
+    // 3 channels of at most "255 " per led
+    private final byte[] mBuffer = new byte[LedInfo.LED_COUNT * 3 * 4];
+    private long mWriteErrors;
+
+    /**
+     * @param file created if needed, e.g. a file under a temporary directory
+     */
+    FakeSysfsLedOutput(File file) throws IOException {
+        mFile = file;
+        mOut = new RandomAccessFile(file, "rw");
+    }
+
+    public void setFrame(int[] colors, int offset, int onMs, int offMs, int option) {
+        int len = 0;
+        for(int i=0; i<LedInfo.LED_COUNT; i++) {
+            final int color = colors[offset + i];
+            len = appendChannel(len, (color >> 16) & 0xFF);
+            len = appendChannel(len, (color >> 8) & 0xFF);
+            len = appendChannel(len, color & 0xFF);
+        }
+        mBuffer[len - 1] = '\n';
+        try {
+            mOut.seek(0);
+            mOut.write(mBuffer, 0, len);
+            mOut.setLength(len);
+        } catch(IOException e) {
+            if(mWriteErrors++ == 0) {
+                Log.w(TAG, "write failed : " + mFile, e);
+            }
+        }
+    }
+
+    private int appendChannel(int len, int value) {
+        if(value >= 100) {
+            mBuffer[len++] = (byte)('0' + value / 100);
+        }
+        if(value >= 10) {
+            mBuffer[len++] = (byte)('0' + value / 10 % 10);
+        }
+        mBuffer[len++] = (byte)('0' + value % 10);
+        mBuffer[len++] = ' ';
+        return len;
+    }
+
+    public boolean hasPatternPlayer() {
+        return false;
+    }
+
+    public boolean playPattern(int[] frames, int frameCount, int stride, int repeat, int option) {
+        return false;
+    }
+
+    public void stopPattern() {
+    }
+
+    long getWriteErrors() {
+        return mWriteErrors;
+    }
+
+    void close() throws IOException {
+        mOut.close();
+    }
+}
@@ -0,0 +1,555 @@
+package com.android.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Parcel;
+import android.os.Process;
+import android.util.Log;
+import com.android.internal.pantech.led.LedInfo;
+
+/**
+ * Binary log of the calls made to LedManagerService, to replay field traffic on a host.
+ * See services/tests/ledbench LedReplayDriver.
+ *
+ * Off by default, "dumpsys led record start [name]" and "dumpsys led record stop".
+ * Logs only go to new files of the recorder directory, DIR on a device: name is a plain
+ * file name, and an existing file is never opened.
+ *
+ * Callers hold LedManagerService.mLock, so a call only copies its type, time, token id
+ * and events into a preallocated slot of a ring there. The recorder's own thread creates
+ * the file, encodes the slots and writes them. The ring doubles when a burst fills it, up
+ * to MAX_RING_SIZE, past that calls are dropped. Events are referenced, not copied: the
+ * service does not modify a posted LedInfo.
+ *
+ * Layout, varints are unsigned LEB128:
+ *   header  int MAGIC, int VERSION, int LedInfo.LED_COUNT
+ *   record  byte type, varint us since the previous record, varint token id,
+ *           then for TYPE_DIED nothing,
+ *           for TYPE_POSTS and TYPE_REMOVES varint count and count events,
+ *           for the other types one event.
+ *   event   varint length, LedInfo.writeToParcel() bytes
+ * Token ids are given in order of first use, a token keeps its id until it dies.
+ * Recording stops by itself at MAX_BYTES.
+ */
+final class LedEventRecorder {
+
+    private static final String TAG = "LedEventRecorder";
+
+    static final int MAGIC = 0x4c454452;
+    static final int VERSION = 1;
+
+    static final int TYPE_POST = 1;
+    static final int TYPE_REMOVE = 2;
+    static final int TYPE_POST_ASYNC = 3;
+    static final int TYPE_REMOVE_ASYNC = 4;
+    static final int TYPE_POSTS = 5;
+    static final int TYPE_REMOVES = 6;
+    static final int TYPE_DIED = 7;
+
+    static final String DIR = "/data/system/ledrecord";
+    static final String DEFAULT_NAME = "led_events.bin";
+    static final long MAX_BYTES = 16 << 20;
+
+    // calls waiting for the writer thread, powers of two
+    static final int RING_SIZE = 256;
+    static final int MAX_RING_SIZE = 4096;
+    private static final int HEADER_BYTES = 12;
+
+    private static final int MSG_OPEN = 1;
+    private static final int MSG_WRITE = 2;
+    private static final int MSG_CLOSE = 3;
+
+    /** One call, filled under the recorder lock and emptied by the writer thread */
+    private static final class Slot {
+        int mSession;
+        int mType;
+        long mTime;
+        int mToken;
+        int mCount;
+        LedInfo[] mEvents = new LedInfo[1];
+    }
+
+    private final File mDir;
+    // started by the first start()
+    private HandlerThread mWriterThread;
+    private Handler mWriter;
+
+    // read without the lock by isRecording()
+    private volatile boolean mRecording;
+    // incremented by start(), tells the slots of one log from the next
+    private int mSession;
+    private File mFile;
+    private long mRecords;
+    private long mDropped;
+    private String mError;
+    private int mNextToken;
+    private final WeakHashMap<IBinder, Integer> mTokens = new WeakHashMap<IBinder, Integer>();
+    private Slot[] mRing = new Slot[RING_SIZE];
+    // slots are filled at mTail and emptied at mHead
+    private long mHead;
+    private long mTail;
+    private boolean mWritePosted;
+    // updated by the writer thread
+    private volatile long mBytes;
+
+    // only used on mWriterThread
+    private OutputStream mOut;
+    private File mOutFile;
+    private int mOutSession;
+    private long mLastTime;
+    private final Slot mCurrent = new Slot();
+    private final ByteArrayOutputStream mRecord = new ByteArrayOutputStream(256);
+
+    /**
+     * @param dir directory of the logs, created on the first start()
+     */
+    LedEventRecorder(File dir) {
+        mDir = dir;
+        for(int i=0; i<RING_SIZE; i++) {
+            mRing[i] = new Slot();
+        }
+    }
+
+    boolean isRecording() {
+        return mRecording;
+    }
+
+    /** @return true if name can only be a file directly inside the recorder directory */
+    static boolean isValidName(String name) {
+        if(name == null || name.length() == 0 || name.length() > 64 || name.charAt(0) == '.') {
+            return false;
+        }
+        for(int i=0; i<name.length(); i++) {
+            final char c = name.charAt(i);
+            if(!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '.' || c == '_' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Start a new log, stopping the current one. The file is created on the writer
+     * thread, if it exists or cannot be created recording stops and dump() tells why.
+     *
+     * @param name file name inside the recorder directory, the file must not exist
+     * @throws IllegalArgumentException if name is not a plain file name
+     */
+    synchronized void start(String name) {
+        if(!isValidName(name)) {
+            throw new IllegalArgumentException("not a file name : " + name);
+        }
+        stop();
+        if(mWriterThread == null) {
+            mWriterThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mWriterThread.start();
+            mWriter = new Handler(mWriterThread.getLooper()) {
+                @Override
+                public void handleMessage(Message msg) {
+                    handleWrite(msg);
+                }
+            };
+        }
+        final File file = new File(mDir, name);
+        mSession++;
+        mWriter.sendMessage(mWriter.obtainMessage(MSG_OPEN, mSession, 0,
+                new Object[] { file, System.nanoTime() }));
+        mFile = file;
+        mBytes = HEADER_BYTES;
+        mRecords = 0;
+        mDropped = 0;
+        mError = null;
+        mNextToken = 0;
+        mTokens.clear();
+        mRecording = true;
+    }
+
+    /** Stop recording, the records already taken are still written. */
+    synchronized void stop() {
+        if(!mRecording) {
+            return;
+        }
+        mRecording = false;
+        mTokens.clear();
+        mWriter.sendMessage(mWriter.obtainMessage(MSG_CLOSE, mSession, 0));
+    }
+
+    synchronized void record(int type, IBinder token, LedInfo info) {
+        if(!mRecording || info == null) {
+            return;
+        }
+        final Slot slot = claimSlot(type, token, 1);
+        if(slot != null) {
+            slot.mEvents[0] = info;
+            slot.mCount = 1;
+            publishSlot();
+        }
+    }
+
+    synchronized void recordBatch(int type, IBinder token, LedInfo[] infos) {
+        if(!mRecording) {
+            return;
+        }
+        int count = 0;
+        for(LedInfo info : infos) {
+            if(info != null) {
+                count++;
+            }
+        }
+        if(count == 0) {
+            return;
+        }
+        final Slot slot = claimSlot(type, token, count);
+        if(slot != null) {
+            for(LedInfo info : infos) {
+                if(info != null) {
+                    slot.mEvents[slot.mCount++] = info;
+                }
+            }
+            publishSlot();
+        }
+    }
+
+    synchronized void recordDied(IBinder token) {
+        if(!mRecording) {
+            return;
+        }
+        final Slot slot = claimSlot(TYPE_DIED, token, 0);
+        mTokens.remove(token);
+        if(slot != null) {
+            publishSlot();
+        }
+    }
+
+    /** @return the slot at mTail with the header filled, or null if the ring is full */
+    private Slot claimSlot(int type, IBinder token, int count) {
+        if(mTail - mHead == mRing.length) {
+            if(mRing.length == MAX_RING_SIZE) {
+                mDropped++;
+                return null;
+            }
+            growRing();
+        }
+        Integer id = mTokens.get(token);
+        if(id == null) {
+            id = mNextToken++;
+            mTokens.put(token, id);
+        }
+        final Slot slot = mRing[(int)(mTail & (mRing.length - 1))];
+        slot.mSession = mSession;
+        slot.mType = type;
+        slot.mTime = System.nanoTime();
+        slot.mToken = id;
+        slot.mCount = 0;
+        if(slot.mEvents.length < count) {
+            slot.mEvents = new LedInfo[count];
+        }
+        return slot;
+    }
+
+    private void growRing() {
+        final Slot[] ring = new Slot[mRing.length * 2];
+        final int N = mRing.length;
+        for(int i=0; i<N; i++) {
+            ring[(int)((mHead + i) & (ring.length - 1))] = mRing[(int)((mHead + i) & (N - 1))];
+        }
+        for(int i=0; i<ring.length; i++) {
+            if(ring[i] == null) {
+                ring[i] = new Slot();
+            }
+        }
+        mRing = ring;
+    }
+
+    private void publishSlot() {
+        mTail++;
+        mRecords++;
+        if(!mWritePosted) {
+            mWritePosted = true;
+            mWriter.sendMessage(mWriter.obtainMessage(MSG_WRITE));
+        }
+    }
+
+    /** On mWriterThread, in the order of the calls */
+    private void handleWrite(Message msg) {
+        switch(msg.what) {
+            case MSG_OPEN:
+                // what is left of the previous log goes to its file
+                drain();
+                closeOut();
+                final Object[] open = (Object[])msg.obj;
+                openOut(msg.arg1, (File)open[0], (Long)open[1]);
+                drain();
+                break;
+            case MSG_WRITE:
+                drain();
+                break;
+            case MSG_CLOSE:
+                drain();
+                if(msg.arg1 == mOutSession) {
+                    closeOut();
+                }
+                break;
+        }
+    }
+
+    private void openOut(int session, File file, long startTime) {
+        mOutSession = session;
+        mOutFile = file;
+        mLastTime = startTime;
+        mBytes = HEADER_BYTES;
+        DataOutputStream out = null;
+        try {
+            if(!mDir.isDirectory() && !mDir.mkdirs()) {
+                throw new IOException("cannot create " + mDir);
+            }
+            // O_CREAT | O_EXCL, never truncates nor follows a link planted there
+            if(!file.createNewFile()) {
+                throw new IOException(file + " exists");
+            }
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(LedInfo.LED_COUNT);
+            mOut = out;
+        } catch(IOException e) {
+            Log.w(TAG, "Cannot record to " + file, e);
+            if(out != null) {
+                try {
+                    out.close();
+                } catch(IOException ignored) {
+                }
+            }
+            stopSession(session, e.toString());
+        }
+    }
+
+    /** Write the published slots of the open log, up to the first of a later log */
+    private void drain() {
+        final Slot slot = mCurrent;
+        while(true) {
+            synchronized(this) {
+                if(mHead == mTail) {
+                    mWritePosted = false;
+                    return;
+                }
+                final Slot head = mRing[(int)(mHead & (mRing.length - 1))];
+                if(head.mSession > mOutSession) {
+                    // its MSG_OPEN is still queued and drains it
+                    mWritePosted = false;
+                    return;
+                }
+                slot.mSession = head.mSession;
+                slot.mType = head.mType;
+                slot.mTime = head.mTime;
+                slot.mToken = head.mToken;
+                slot.mCount = head.mCount;
+                if(slot.mEvents.length < head.mCount) {
+                    slot.mEvents = new LedInfo[head.mEvents.length];
+                }
+                System.arraycopy(head.mEvents, 0, slot.mEvents, 0, head.mCount);
+                // do not keep the events alive in the ring
+                Arrays.fill(head.mEvents, 0, head.mCount, null);
+                mHead++;
+            }
+            if(slot.mSession == mOutSession && mOut != null) {
+                writeSlot(slot);
+            }
+            Arrays.fill(slot.mEvents, 0, slot.mCount, null);
+        }
+    }
+
+    private void writeSlot(Slot slot) {
+        mRecord.reset();
+        mRecord.write(slot.mType);
+        encodeVarint((slot.mTime - mLastTime) / 1000);
+        encodeVarint(slot.mToken);
+        if(slot.mType == TYPE_POSTS || slot.mType == TYPE_REMOVES) {
+            encodeVarint(slot.mCount);
+        }
+        for(int i=0; i<slot.mCount; i++) {
+            final Parcel parcel = Parcel.obtain();
+            try {
+                slot.mEvents[i].writeToParcel(parcel, 0);
+                final byte[] event = parcel.marshall();
+                encodeVarint(event.length);
+                mRecord.write(event, 0, event.length);
+            } catch(RuntimeException e) {
+                // a malformed event, drop the call without leaving half a record
+                synchronized(this) {
+                    mDropped++;
+                }
+                return;
+            } finally {
+                parcel.recycle();
+            }
+        }
+        mLastTime = slot.mTime;
+        try {
+            mRecord.writeTo(mOut);
+        } catch(IOException e) {
+            Log.w(TAG, "Failure writing " + mOutFile + ", recording stopped", e);
+            closeOut();
+            stopSession(mOutSession, e.toString());
+            return;
+        }
+        final long bytes = mBytes + mRecord.size();
+        mBytes = bytes;
+        if(bytes >= MAX_BYTES) {
+            Log.w(TAG, "Log full, recording stopped : " + mOutFile);
+            closeOut();
+            stopSession(mOutSession, null);
+        }
+    }
+
+    /** Stop recording if session is still the current log */
+    private synchronized void stopSession(int session, String error) {
+        if(session == mSession && mRecording) {
+            mError = error;
+            stop();
+        }
+    }
+
+    private void encodeVarint(long value) {
+        while((value & ~0x7fL) != 0) {
+            mRecord.write((int)(value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        mRecord.write((int)value);
+    }
+
+    private void closeOut() {
+        if(mOut == null) {
+            return;
+        }
+        try {
+            mOut.close();
+        } catch(IOException e) {
+            Log.w(TAG, "Failure closing " + mOutFile, e);
+        }
+        mOut = null;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("  " + (mRecording ? "recording" : "stopped")
+                + (mFile != null ? " : " + mFile : "")
+                + ", records : " + mRecords
+                + ", bytes : " + mBytes
+                + ", dropped : " + mDropped
+                + ", tokens : " + mNextToken
+                + (mError != null ? ", error : " + mError : ""));
+    }
+
+    /**
+     * Sequential reader of a log, for the host tools.
+     */
+    static final class Reader {
+        private final DataInputStream mIn;
+        private boolean mStarted;
+
+        int mType;
+        // ns since the first record
+        long mTime;
+        int mToken;
+        // events of the record, empty for TYPE_DIED
+        LedInfo[] mEvents;
+
+        Reader(InputStream in) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(in));
+            if(mIn.readInt() != MAGIC) {
+                throw new IOException("not a led event log");
+            }
+            final int version = mIn.readInt();
+            if(version != VERSION) {
+                throw new IOException("unsupported version " + version);
+            }
+            final int ledCount = mIn.readInt();
+            if(ledCount != LedInfo.LED_COUNT) {
+                throw new IOException("recorded with " + ledCount + " leds");
+            }
+        }
+
+        /** @return false at the end of the log */
+        boolean next() throws IOException {
+            final int type = mIn.read();
+            if(type < 0) {
+                return false;
+            }
+            final long delta = readVarint() * 1000;
+            mType = type;
+            // the first record is timed from start(), count from it
+            mTime = mStarted ? mTime + delta : 0;
+            mStarted = true;
+            mToken = (int)readVarint();
+            int count;
+            switch(type) {
+                case TYPE_DIED:
+                    count = 0;
+                    break;
+                case TYPE_POSTS:
+                case TYPE_REMOVES:
+                    count = (int)readVarint();
+                    break;
+                case TYPE_POST:
+                case TYPE_REMOVE:
+                case TYPE_POST_ASYNC:
+                case TYPE_REMOVE_ASYNC:
+                    count = 1;
+                    break;
+                default:
+                    throw new IOException("unknown record type " + type);
+            }
+            mEvents = new LedInfo[count];
+            for(int i=0; i<count; i++) {
+                final byte[] bytes = new byte[(int)readVarint()];
+                mIn.readFully(bytes);
+                final Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(bytes, 0, bytes.length);
+                    parcel.setDataPosition(0);
+                    mEvents[i] = LedInfo.CREATOR.createFromParcel(parcel);
+                } finally {
+                    parcel.recycle();
+                }
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            mIn.close();
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for(int shift=0; shift<64; shift+=7) {
+                final int b = mIn.read();
+                if(b < 0) {
+                    throw new EOFException("truncated record");
+                }
+                value |= (long)(b & 0x7f) << shift;
+                if((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+    }
+}
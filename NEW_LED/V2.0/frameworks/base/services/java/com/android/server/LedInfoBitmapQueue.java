@@ -0,0 +1,108 @@
+package com.android.server;
+
+import com.android.internal.pantech.led.LedInfo;
+import com.android.internal.pantech.led.LedManager;
+
+import android.util.Log;
+import android.os.Handler;
+
+/**
+ * LedInfoQueue backed by a slot array indexed by appId and a long occupancy bitmap.
+ *
+ * appId doubles as priority and is bounded by LedManager.APPID_TOP, so bit n of mBits
+ * is set when mSlots[n] holds an event and the head is the highest set bit.
+ * Every operation is O(1) and nothing is allocated.
+ */
+class LedInfoBitmapQueue extends LedInfoQueue {
+
+    private final LedInfo[] mSlots = new LedInfo[Long.SIZE];
+    private long mBits;
+
+    LedInfoBitmapQueue(LedManagerService service, Handler handler) {
+        super(service, handler);
+        if(LedManager.APPID_TOP > Long.SIZE) {
+            throw new IllegalStateException("APPID_TOP " + LedManager.APPID_TOP + " does not fit in the bitmap");
+        }
+    }
+
+    @Override
+    protected LedInfo peekHeadLocked() {
+        if(mBits == 0) {
+            return null;
+        }
+        return mSlots[Long.SIZE - 1 - Long.numberOfLeadingZeros(mBits)];
+    }
+
+    @Override
+    protected LedInfo removeHeadLocked() {
+        if(mBits == 0) {
+            return null;
+        }
+        final int appId = Long.SIZE - 1 - Long.numberOfLeadingZeros(mBits);
+        final LedInfo head = mSlots[appId];
+        mSlots[appId] = null;
+        mBits &= ~(1L << appId);
+        return head;
+    }
+
+    @Override
+    protected boolean replaceLedInfoLocked(LedInfo info) {
+        final int appId = info.getAppId();
+        if((mBits & (1L << appId)) == 0) {
+            return false;
+        }
+        if(DEBUG) Log.d(TAG, "Replace event [appId : " + appId + "] to [appId : " + appId + "]");
+        mSlots[appId] = info;
+        return true;
+    }
+
+    @Override
+    protected void addLocked(LedInfo info) {
+        final int appId = info.getAppId();
+        mSlots[appId] = info;
+        mBits |= 1L << appId;
+    }
+
+    @Override
+    protected boolean removeLocked(int appId) {
+        final long bit = 1L << appId;
+        if((mBits & bit) == 0) {
+            return false;
+        }
+        mSlots[appId] = null;
+        mBits &= ~bit;
+        return true;
+    }
+
+    @Override
+    protected int sizeLocked() {
+        return Long.bitCount(mBits);
+    }
+
+    @Override
+    protected void removeOneShotEventsLocked() {
+        long bits = mBits;
+        while(bits != 0) {
+            final int appId = Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            if(!mSlots[appId].isPeriodicEvent()) {
+                mSlots[appId] = null;
+                mBits &= ~(1L << appId);
+                oneShotEventRemovedLocked(appId);
+            }
+        }
+    }
+
+    @Override
+    protected LedInfo[] toSortedArrayLocked() {
+        LedInfo[] infos = new LedInfo[Long.bitCount(mBits)];
+        long bits = mBits;
+        int i = 0;
+        while(bits != 0) {
+            final int appId = Long.SIZE - 1 - Long.numberOfLeadingZeros(bits);
+            infos[i++] = mSlots[appId];
+            bits &= ~(1L << appId);
+        }
+        return infos;
+    }
+}
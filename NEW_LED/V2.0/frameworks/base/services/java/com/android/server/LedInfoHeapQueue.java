@@ -0,0 +1,180 @@
+package com.android.server;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import com.android.internal.pantech.led.LedInfo;
+import com.android.internal.pantech.led.LedManager;
+
+import android.util.Log;
+import android.os.Handler;
+
+/**
+ * LedInfoQueue backed by an indexed binary max-heap.
+ *
+ * mSlots maps an appId to its position in mHeap, so enqueue, replace and dequeue by
+ * appId are O(log n), head lookup is O(1) and none of them allocate.
+ */
+class LedInfoHeapQueue extends LedInfoQueue {
+
+    private static final int NO_SLOT = -1;
+
+    // heap[0] is the head
+    private final LedInfo[] mHeap;
+    // appId -> index in mHeap, NO_SLOT if not queued
+    private final int[] mSlots;
+    private int mSize;
+
+    LedInfoHeapQueue(LedManagerService service, Handler handler) {
+        super(service, handler);
+        mHeap = new LedInfo[LedManager.APPID_TOP];
+        mSlots = new int[LedManager.APPID_TOP];
+        Arrays.fill(mSlots, NO_SLOT);
+    }
+
+    @Override
+    protected LedInfo peekHeadLocked() {
+        return mSize > 0 ? mHeap[0] : null;
+    }
+
+    @Override
+    protected LedInfo removeHeadLocked() {
+        if(mSize > 0) {
+            return removeAtLocked(0);
+        }
+        return null;
+    }
+
+    @Override
+    protected boolean replaceLedInfoLocked(LedInfo info) {
+        final int slot = mSlots[info.getAppId()];
+        if(slot == NO_SLOT) {
+            return false;
+        }
+        if(DEBUG) Log.d(TAG, "Replace event [appId : " + mHeap[slot].getAppId() + "] to [appId : " + info.getAppId() + "]");
+        // same appId means same priority, the heap order is kept as it is
+        mHeap[slot] = info;
+        return true;
+    }
+
+    @Override
+    protected void addLocked(LedInfo info) {
+        mHeap[mSize] = info;
+        mSlots[info.getAppId()] = mSize;
+        siftUpLocked(mSize++);
+    }
+
+    @Override
+    protected boolean removeLocked(int appId) {
+        final int slot = mSlots[appId];
+        if(slot == NO_SLOT) {
+            return false;
+        }
+        removeAtLocked(slot);
+        return true;
+    }
+
+    @Override
+    protected int sizeLocked() {
+        return mSize;
+    }
+
+    @Override
+    protected void removeOneShotEventsLocked() {
+        // compact the periodic events to the front, then rebuild the heap bottom up, O(n)
+        final int size = mSize;
+        int kept = 0;
+        for(int i=0; i<size; i++) {
+            final LedInfo info = mHeap[i];
+            if(info.isPeriodicEvent()) {
+                mHeap[kept] = info;
+                mSlots[info.getAppId()] = kept;
+                kept++;
+            } else {
+                mSlots[info.getAppId()] = NO_SLOT;
+                oneShotEventRemovedLocked(info.getAppId());
+            }
+        }
+        if(kept == size) {
+            return;
+        }
+        for(int i=kept; i<size; i++) {
+            mHeap[i] = null;
+        }
+        mSize = kept;
+        for(int i=(kept >>> 1) - 1; i>=0; i--) {
+            siftDownLocked(i);
+        }
+    }
+
+    @Override
+    protected LedInfo[] toSortedArrayLocked() {
+        // heap order is not priority order, sort a copy
+        LedInfo[] infos = Arrays.copyOf(mHeap, mSize);
+        Arrays.sort(infos, new Comparator<LedInfo>() {
+            @Override
+            public int compare(LedInfo info1, LedInfo info2) {
+                return info1.getAppId() > info2.getAppId() ? -1 : info1.getAppId() < info2.getAppId() ? 1 : 0;
+            }
+        });
+        return infos;
+    }
+
+    private LedInfo removeAtLocked(int index) {
+        final LedInfo removed = mHeap[index];
+        final int last = --mSize;
+        mSlots[removed.getAppId()] = NO_SLOT;
+        if(index != last) {
+            final LedInfo moved = mHeap[last];
+            mHeap[index] = moved;
+            mSlots[moved.getAppId()] = index;
+            mHeap[last] = null;
+            if(!siftUpLocked(index)) {
+                siftDownLocked(index);
+            }
+        } else {
+            mHeap[last] = null;
+        }
+        return removed;
+    }
+
+    private boolean siftUpLocked(int index) {
+        final LedInfo info = mHeap[index];
+        final int appId = info.getAppId();
+        final int start = index;
+        while(index > 0) {
+            final int parent = (index - 1) >>> 1;
+            final LedInfo p = mHeap[parent];
+            if(p.getAppId() >= appId) {
+                break;
+            }
+            mHeap[index] = p;
+            mSlots[p.getAppId()] = index;
+            index = parent;
+        }
+        mHeap[index] = info;
+        mSlots[appId] = index;
+        return index != start;
+    }
+
+    private void siftDownLocked(int index) {
+        final LedInfo info = mHeap[index];
+        final int appId = info.getAppId();
+        final int half = mSize >>> 1;
+        while(index < half) {
+            int child = (index << 1) + 1;
+            final int right = child + 1;
+            if(right < mSize && mHeap[right].getAppId() > mHeap[child].getAppId()) {
+                child = right;
+            }
+            final LedInfo c = mHeap[child];
+            if(appId >= c.getAppId()) {
+                break;
+            }
+            mHeap[index] = c;
+            mSlots[c.getAppId()] = index;
+            index = child;
+        }
+        mHeap[index] = info;
+        mSlots[appId] = index;
+    }
+}
@@ -1,20 +1,26 @@
 package com.android.server;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import com.android.internal.pantech.led.LedInfo;
 import com.android.internal.pantech.led.LedManager;
 
 import android.util.Log;
 import android.os.Handler;
 
-class LedInfoQueue {
+/**
+ * Priority queue of pending led events. appId is the priority, the highest appId is the head.
+ *
+ * This class holds the queueing policy. How the events are stored is up to the
+ * subclass, see {@link LedInfoHeapQueue} and {@link LedInfoBitmapQueue}.
+ */
+abstract class LedInfoQueue {
 
     static final String TAG = "LedInfoQueue";
-    private static final boolean DEBUG = LedManagerService.DEBUG_QUEUE;
-    final ArrayList<LedInfo> mLedInfos = new ArrayList<LedInfo>();
+    static final boolean DEBUG = LedManagerService.DEBUG_QUEUE;
+
+    static final int TYPE_HEAP = 0;
+    static final int TYPE_BITMAP = 1;
+
     final LedManagerService mService;
     Handler mHandler;
 
@@ -23,11 +29,32 @@ class LedInfoQueue {
         mHandler = handler;
     }
 
+    static LedInfoQueue create(int type, LedManagerService service, Handler handler) {
+        switch(type) {
+            case TYPE_HEAP:
+                return new LedInfoHeapQueue(service, handler);
+            case TYPE_BITMAP:
+                return new LedInfoBitmapQueue(service, handler);
+        }
+        throw new IllegalArgumentException("unknown queue type : " + type);
+    }
+
     protected void enqueueLedInfoLocked(LedInfo info) {
         final int appId = info.getAppId();
+        if(appId < LedManager.APPID_MIN || appId >= LedManager.APPID_TOP) {
+            Log.w(TAG, "Reject enqueue event id : " + appId + ". Out of range.");
+            mService.removeDeathHandler(appId);
+            return;
+        }
+        if(!isPlayable(info)) {
+            Log.w(TAG, "Reject enqueue event id : " + appId + ". Malformed color or pattern.");
+            mService.removeDeathHandler(appId);
+            return;
+        }
         if(!info.isPeriodicEvent()) {
-            if(mLedInfos.size() > 0 && 
-                    mLedInfos.get(0).getAppId() > appId) {
+            LedInfo head = peekHeadLocked();
+            if(head != null &&
+                    head.getAppId() > appId) {
                 if(DEBUG) Log.w(TAG, "Reject enqueue one-shot event id : " + appId + ". Because of priority of requested event lower than head event.");
                 // death handler
                 mService.removeDeathHandler(appId);
@@ -37,22 +64,34 @@ class LedInfoQueue {
 
         if(!replaceLedInfoLocked(info)) {
             if(DEBUG) Log.d(TAG, "Enqueue event [appId : " + appId + "]");
-            mLedInfos.add(info);
+            addLocked(info);
+        }
+    }
+
+    /**
+     * Events coming from a Parcel are not validated by LedInfo. Check here, before they
+     * can reach the player.
+     */
+    private boolean isPlayable(LedInfo info) {
+        if(info.isPeriodicEvent()) {
+            return info.mColor != null && info.mColor.length == LedInfo.LED_COUNT;
+        }
+        try {
+            mService.internPatternLocked(info);
+            return info.getRepeatCount() > 0;
+        } catch(IllegalArgumentException e) {
+            return false;
         }
-        sortListLocked();
     }
 
     protected void dequeueLedInfoLocked(int appId) {
-        int index = 0;
-        for(; index < mLedInfos.size(); index++) {
-            LedInfo info = mLedInfos.get(index);
-            if(appId == info.getAppId()) {
-                if(DEBUG) Log.d(TAG, "Dequeue event [appId : " + appId + "]");
-                mLedInfos.remove(index);
-                // death handler
-                mService.removeDeathHandler(appId);
-                break;
-            }
+        if(appId < LedManager.APPID_MIN || appId >= LedManager.APPID_TOP) {
+            return;
+        }
+        if(removeLocked(appId)) {
+            if(DEBUG) Log.d(TAG, "Dequeue event [appId : " + appId + "]");
+            // death handler
+            mService.removeDeathHandler(appId);
         }
     }
 
@@ -61,42 +100,51 @@ class LedInfoQueue {
         mService.processLedEventLocked(head);
     }
 
-    private LedInfo removeHeadLocked() {
-        if(mLedInfos.size() > 0) {
-            return mLedInfos.remove(0);
-        }
-        return null;
+    /**
+     * Remove every queued one-shot event. Used after a batch post, where one-shot events
+     * lower than the head would otherwise stay queued.
+     */
+    protected void dropOneShotEventsLocked() {
+        removeOneShotEventsLocked();
     }
 
-    private boolean replaceLedInfoLocked(LedInfo info) {
-        for(int i=0; i<mLedInfos.size(); i++) {
-            if(mLedInfos.get(i).getAppId() == info.getAppId()) {
-                if(DEBUG) Log.d(TAG, "Replace event [appId : " + mLedInfos.get(i).getAppId() + "] to [appId : " + info.getAppId() + "]");
-                mLedInfos.set(i, info);
-                return true;
-            }
+    /** Called by removeOneShotEventsLocked() for every event it removed */
+    protected void oneShotEventRemovedLocked(int appId) {
+        if(DEBUG) Log.d(TAG, "Drop one-shot event [appId : " + appId + "]");
+        // death handler
+        mService.removeDeathHandler(appId);
+    }
+
+    protected void dumpQueueLocked(PrintWriter pw) {
+        pw.println("  (" + getClass().getSimpleName() + ", size : " + sizeLocked() + ")");
+        for(LedInfo info : toSortedArrayLocked()) {
+            pw.println("  - " + info.toString());
         }
-        return false;
     }
 
-    private void sortListLocked() {
-        // sort to descending order
-        Collections.sort(mLedInfos, new Comparator<LedInfo>() {
-            @Override
-            public int compare(LedInfo info1, LedInfo info2) {
-                return info1.getAppId() > info2.getAppId() ? -1 : info1.getAppId() < info2.getAppId() ? 1 : 0;
-            }
+    /** @return the highest priority event without removing it, or null */
+    protected abstract LedInfo peekHeadLocked();
 
-            public boolean equals(LedInfo info) {
-                return false;
-            }
-        });
-    }
+    /** @return the highest priority event after removing it, or null */
+    protected abstract LedInfo removeHeadLocked();
 
+    /** Replace the queued event with the same appId. @return false if there was none */
+    protected abstract boolean replaceLedInfoLocked(LedInfo info);
 
-    protected void dumpQueue(PrintWriter pw) {
-        for(LedInfo info : mLedInfos) {
-            pw.println("  - " + info.toString());
-        }
-    }
+    /** Add an event whose appId is not queued yet */
+    protected abstract void addLocked(LedInfo info);
+
+    /** @return true if an event with appId was queued and has been removed */
+    protected abstract boolean removeLocked(int appId);
+
+    protected abstract int sizeLocked();
+
+    /**
+     * Remove every one-shot event in a single pass over the storage, without allocating,
+     * and call oneShotEventRemovedLocked() for each.
+     */
+    protected abstract void removeOneShotEventsLocked();
+
+    /** @return queued events in descending priority order, for dump */
+    protected abstract LedInfo[] toSortedArrayLocked();
 }
@@ -0,0 +1,166 @@
+package com.android.server;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Per appId latency histograms of the way from postEvent to the hardware, for dumpsys led.
+ *
+ * Every stage has a fixed set of power of two buckets in microseconds, bucket 0 counts
+ * samples under 1us and bucket i samples in [2^(i-1), 2^i) us. The last bucket also takes
+ * everything longer. All storage is allocated up front, recording is a few array stores.
+ * Not thread safe, used under LedManagerService.mLock.
+ */
+final class LedLatencyStats {
+
+    // binder thread waiting for mLock in postEvent
+    static final int STAGE_LOCK = 0;
+    // enqueueLedInfoLocked, validation and queue insert
+    static final int STAGE_QUEUE = 1;
+    // scheduleLedInfoLocked and processLedEventLocked, a periodic event commits here
+    static final int STAGE_PROCESS = 2;
+    // hop to mOneShotEventHandler: oneway request to inbox drain, one-shot start to first frame
+    static final int STAGE_HANDLER = 3;
+    // LedOutput.setFrame or playPattern, the HAL write
+    static final int STAGE_COMMIT = 4;
+    // post to the first frame of the event on the hardware
+    static final int STAGE_TOTAL = 5;
+    static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES = {
+        "lock", "queue", "process", "handler", "commit", "total"
+    };
+
+    // the last bucket starts at 2^22us, about 4s
+    static final int BUCKETS = 24;
+
+    private final int mAppIdCount;
+    // [appId][stage][bucket]
+    private final long[] mCounts;
+    // [appId][stage], in ns
+    private final long[] mSums;
+    private final long[] mMaxs;
+    // time of the last post of each appId not shown yet, 0 if none
+    private final long[] mPostTimes;
+
+    /**
+     * @param appIdCount appIds are 0 .. appIdCount-1, others are ignored
+     */
+    LedLatencyStats(int appIdCount) {
+        mAppIdCount = appIdCount;
+        mCounts = new long[appIdCount * STAGE_COUNT * BUCKETS];
+        mSums = new long[appIdCount * STAGE_COUNT];
+        mMaxs = new long[appIdCount * STAGE_COUNT];
+        mPostTimes = new long[appIdCount];
+    }
+
+    void record(int stage, int appId, long ns) {
+        if(appId < 0 || appId >= mAppIdCount) {
+            return;
+        }
+        if(ns < 0) {
+            ns = 0;
+        }
+        final int index = appId * STAGE_COUNT + stage;
+        mCounts[index * BUCKETS + bucketOf(ns)]++;
+        mSums[index] += ns;
+        if(ns > mMaxs[index]) {
+            mMaxs[index] = ns;
+        }
+    }
+
+    /**
+     * The event of appId was posted at time (System.nanoTime()). A later post of the
+     * same appId restarts the measure.
+     */
+    void markPosted(int appId, long time) {
+        if(appId < 0 || appId >= mAppIdCount) {
+            return;
+        }
+        // 0 means none
+        mPostTimes[appId] = time != 0 ? time : 1;
+    }
+
+    /**
+     * The first frame of appId's event reached the hardware, record STAGE_TOTAL.
+     */
+    void markShown(int appId, long time) {
+        if(appId < 0 || appId >= mAppIdCount || mPostTimes[appId] == 0) {
+            return;
+        }
+        record(STAGE_TOTAL, appId, time - mPostTimes[appId]);
+        mPostTimes[appId] = 0;
+    }
+
+    void reset() {
+        Arrays.fill(mCounts, 0);
+        Arrays.fill(mSums, 0);
+        Arrays.fill(mMaxs, 0);
+    }
+
+    static int bucketOf(long ns) {
+        final long us = ns / 1000;
+        final int bucket = 64 - Long.numberOfLeadingZeros(us);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+    void dump(PrintWriter pw) {
+        boolean any = false;
+        for(int appId=0; appId<mAppIdCount; appId++) {
+            boolean header = false;
+            for(int stage=0; stage<STAGE_COUNT; stage++) {
+                final int index = appId * STAGE_COUNT + stage;
+                long count = 0;
+                for(int b=0; b<BUCKETS; b++) {
+                    count += mCounts[index * BUCKETS + b];
+                }
+                if(count == 0) {
+                    continue;
+                }
+                if(!header) {
+                    pw.println("  - AppId : " + appId);
+                    header = true;
+                    any = true;
+                }
+                StringBuilder sb = new StringBuilder(128);
+                sb.append("    ").append(STAGE_NAMES[stage])
+                        .append(" : n ").append(count)
+                        .append(", avg ").append(mSums[index] / count / 1000).append("us")
+                        .append(", p50 ").append(bucketLabel(percentileBucket(index, count, 50)))
+                        .append(", p99 ").append(bucketLabel(percentileBucket(index, count, 99)))
+                        .append(", max ").append(mMaxs[index] / 1000).append("us")
+                        .append(" |");
+                for(int b=0; b<BUCKETS; b++) {
+                    final long n = mCounts[index * BUCKETS + b];
+                    if(n != 0) {
+                        sb.append(' ').append(bucketLabel(b)).append(':').append(n);
+                    }
+                }
+                pw.println(sb.toString());
+            }
+        }
+        if(!any) {
+            pw.println("  (no samples)");
+        }
+    }
+
+    /** @return the bucket holding the percentile */
+    private int percentileBucket(int index, long count, int percent) {
+        final long rank = (count * percent + 99) / 100;
+        long seen = 0;
+        for(int b=0; b<BUCKETS; b++) {
+            seen += mCounts[index * BUCKETS + b];
+            if(seen >= rank) {
+                return b;
+            }
+        }
+        return BUCKETS - 1;
+    }
+
+    static String bucketLabel(int bucket) {
+        if(bucket == BUCKETS - 1) {
+            return ">=" + (1L << (bucket - 1)) + "us";
+        }
+        return "<" + (1L << bucket) + "us";
+    }
+}
@@ -0,0 +1,193 @@
+package com.android.server;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reentrant lock that measures its own contention, used for LedManagerService.mLock.
+ *
+ * Every lock() names its call site, an index in the site names given to the constructor.
+ * For each site it keeps the acquisition count, a wait time histogram (the buckets of
+ * {@link LedLatencyStats}), hold times, and which site was holding the lock when the
+ * acquisition had to wait. Nested acquisitions by the holder are only counted.
+ * Statistics are updated by the holder, so they are guarded by the lock itself.
+ *
+ * With tracing on, contended acquisitions and holds of TRACE_HOLD_NS or more also go
+ * to the trace ring.
+ */
+final class LedLock {
+
+    private static final long TRACE_HOLD_NS = 1000000;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final String mName;
+    private final String[] mSiteNames;
+    private final int mSiteCount;
+
+    // site of the outermost holder, -1 when free. Read without the lock by waiters
+    private volatile int mHolderSite = -1;
+    private long mAcquiredAt;
+    private long mNested;
+
+    // per site
+    private final long[] mAcquired;
+    private final long[] mContended;
+    private final long[] mWaitSums;
+    private final long[] mWaitMaxs;
+    private final long[] mHoldSums;
+    private final long[] mHoldMaxs;
+    // [site][bucket]
+    private final long[] mWaitCounts;
+    // [waiting site][holding site]
+    private final long[] mBlockedBy;
+
+    private LedTraceRing mTrace;
+    private boolean mTracing;
+
+    LedLock(String name, String[] siteNames) {
+        mName = name;
+        mSiteNames = siteNames;
+        mSiteCount = siteNames.length;
+        mAcquired = new long[mSiteCount];
+        mContended = new long[mSiteCount];
+        mWaitSums = new long[mSiteCount];
+        mWaitMaxs = new long[mSiteCount];
+        mHoldSums = new long[mSiteCount];
+        mHoldMaxs = new long[mSiteCount];
+        mWaitCounts = new long[mSiteCount * LedLatencyStats.BUCKETS];
+        mBlockedBy = new long[mSiteCount * mSiteCount];
+    }
+
+    void lock(int site) {
+        if(mLock.isHeldByCurrentThread()) {
+            mLock.lock();
+            mNested++;
+            return;
+        }
+        if(mLock.tryLock()) {
+            mAcquiredAt = System.nanoTime();
+            mHolderSite = site;
+            mAcquired[site]++;
+            mWaitCounts[site * LedLatencyStats.BUCKETS]++;
+            return;
+        }
+        final int holder = mHolderSite;
+        final long start = System.nanoTime();
+        mLock.lock();
+        final long now = System.nanoTime();
+        final long wait = now - start;
+        mAcquiredAt = now;
+        mHolderSite = site;
+        mAcquired[site]++;
+        mContended[site]++;
+        mWaitCounts[site * LedLatencyStats.BUCKETS + LedLatencyStats.bucketOf(wait)]++;
+        mWaitSums[site] += wait;
+        if(wait > mWaitMaxs[site]) {
+            mWaitMaxs[site] = wait;
+        }
+        // -1 if the holder released it between tryLock and the read
+        if(holder >= 0) {
+            mBlockedBy[site * mSiteCount + holder]++;
+        }
+        if(mTracing) {
+            mTrace.trace(LedTraceRing.TYPE_LOCK_WAIT, site, (int)Math.min(wait / 1000, Integer.MAX_VALUE));
+        }
+    }
+
+    void unlock() {
+        if(mLock.getHoldCount() == 1) {
+            final int site = mHolderSite;
+            final long hold = System.nanoTime() - mAcquiredAt;
+            mHoldSums[site] += hold;
+            if(hold > mHoldMaxs[site]) {
+                mHoldMaxs[site] = hold;
+            }
+            if(mTracing && hold >= TRACE_HOLD_NS) {
+                mTrace.trace(LedTraceRing.TYPE_LOCK_HOLD, site, (int)Math.min(hold / 1000, Integer.MAX_VALUE));
+            }
+            mHolderSite = -1;
+        }
+        mLock.unlock();
+    }
+
+    boolean isHeldByCurrentThread() {
+        return mLock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Start or stop writing to the trace ring. Call with the lock held.
+     */
+    void setTrace(LedTraceRing trace, boolean on) {
+        mTrace = trace;
+        mTracing = on && trace != null;
+    }
+
+    boolean isTracing() {
+        return mTracing;
+    }
+
+    /** Call with the lock held. */
+    void reset() {
+        Arrays.fill(mAcquired, 0);
+        Arrays.fill(mContended, 0);
+        Arrays.fill(mWaitSums, 0);
+        Arrays.fill(mWaitMaxs, 0);
+        Arrays.fill(mHoldSums, 0);
+        Arrays.fill(mHoldMaxs, 0);
+        Arrays.fill(mWaitCounts, 0);
+        Arrays.fill(mBlockedBy, 0);
+        mNested = 0;
+    }
+
+    /** Call with the lock held, the dump's own hold is not counted yet. */
+    void dump(PrintWriter pw) {
+        long acquired = 0;
+        long contended = 0;
+        for(int site=0; site<mSiteCount; site++) {
+            acquired += mAcquired[site];
+            contended += mContended[site];
+        }
+        pw.println("  " + mName + " : acquired " + acquired
+                + ", contended " + contended
+                + " (" + (acquired == 0 ? 0 : contended * 100 / acquired) + "%)"
+                + ", nested " + mNested
+                + ", trace " + (mTracing ? "on" : "off"));
+        for(int site=0; site<mSiteCount; site++) {
+            final long n = mAcquired[site];
+            if(n == 0) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder(160);
+            sb.append("  - ").append(mSiteNames[site])
+                    .append(" : n ").append(n)
+                    .append(", contended ").append(mContended[site])
+                    .append(", wait avg ").append(mWaitSums[site] / n / 1000).append("us")
+                    .append(", max ").append(mWaitMaxs[site] / 1000).append("us")
+                    .append(", hold avg ").append(mHoldSums[site] / n / 1000).append("us")
+                    .append(", max ").append(mHoldMaxs[site] / 1000).append("us");
+            pw.println(sb.toString());
+            if(mContended[site] == 0) {
+                continue;
+            }
+            sb.setLength(0);
+            sb.append("      wait |");
+            for(int b=0; b<LedLatencyStats.BUCKETS; b++) {
+                final long count = mWaitCounts[site * LedLatencyStats.BUCKETS + b];
+                if(count != 0) {
+                    sb.append(' ').append(LedLatencyStats.bucketLabel(b)).append(':').append(count);
+                }
+            }
+            pw.println(sb.toString());
+            sb.setLength(0);
+            sb.append("      blocked by |");
+            for(int holder=0; holder<mSiteCount; holder++) {
+                final long count = mBlockedBy[site * mSiteCount + holder];
+                if(count != 0) {
+                    sb.append(' ').append(mSiteNames[holder]).append(':').append(count);
+                }
+            }
+            pw.println(sb.toString());
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package com.android.server;
 
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
@@ -13,33 +16,122 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import com.android.internal.pantech.led.LedInfo;
 import com.android.internal.pantech.led.ILedManager;
+import com.android.internal.pantech.led.LedManager;
+import com.android.internal.pantech.led.LedPattern;
 
 public class LedManagerService extends ILedManager.Stub {
 
     private static final String TAG = "LedManagerService";
-    static final boolean DEBUG_QUEUE = true;
-    static final boolean DEBUG_SERVICE = true;
-    static final boolean DEBUG_DEATH = true;
+    static final boolean DEBUG_QUEUE = false;
+    static final boolean DEBUG_SERVICE = false;
+    static final boolean DEBUG_DEATH = false;
 
     static final int TURN_OFF_MSG = 0;
     static final int SCHEDULE_EVENT_MSG = 1;
 
-    private LedInfoQueue mLedInfoQueue;
-    private Object mLock = new Object();
+    private static final int[] OFF_COLORS = new int[LedInfo.LED_COUNT];
+
+    private static final int TRACE_CAPACITY = 256;
+    // records printed by dumpsys led, "dumpsys led trace" prints all of them
+    private static final int TRACE_DUMP_DEFAULT = 32;
+
+    // LedLock call sites, see dump
+    static final int LOCK_POST_EVENT = 0;
+    static final int LOCK_REMOVE_EVENT = 1;
+    static final int LOCK_POST_EVENTS = 2;
+    static final int LOCK_REMOVE_EVENTS = 3;
+    static final int LOCK_DRAIN_INBOX = 4;
+    static final int LOCK_SCHEDULE = 5;
+    static final int LOCK_TURN_OFF = 6;
+    static final int LOCK_PERIODIC = 7;
+    static final int LOCK_ONE_SHOT = 8;
+    static final int LOCK_ONE_SHOT_FRAME = 9;
+    static final int LOCK_ONE_SHOT_STOP = 10;
+    static final int LOCK_BINDER_DIED = 11;
+    static final int LOCK_DUMP = 12;
+    // callers outside the service, the host benchmarks
+    static final int LOCK_EXTERNAL = 13;
+    private static final String[] LOCK_SITES = {
+        "postEvent", "removeEvent", "postEvents", "removeEvents", "drainInbox",
+        "schedule", "turnOff", "periodic", "oneShotStart", "oneShotFrame",
+        "oneShotStop", "binderDied", "dump", "external"
+    };
+
+    // package visible for the host benchmarks in services/tests/ledbench
+    LedInfoQueue mLedInfoQueue;
+    final LedLock mLock = new LedLock("mLock", LOCK_SITES);
     private final Context mContext;
-    private int mNativePointer;
+    private final LedOutput mOutput;
     private HandlerThread mHandlerThread;
     private Handler mOneShotEventHandler;
     private OneShotEvent mOneShotEventRunnable = new OneShotEvent();
-    private final ArrayList<LedClientDeathHandler> mLedClientDeathHandlers = new ArrayList<LedClientDeathHandler>();
-    private LedInfo mCurrentLedInfo;
+    // appId -> death handler of the token that posted it
+    private final SparseArray<LedClientDeathHandler> mDeathHandlers = new SparseArray<LedClientDeathHandler>();
+    // token -> death handler, one linkToDeath per token
+    private final HashMap<IBinder, LedClientDeathHandler> mDeathHandlersByToken = new HashMap<IBinder, LedClientDeathHandler>();
+    // package visible for the host tools in services/tests/ledbench
+    LedInfo mCurrentLedInfo;
+
+    // shadow of the last frame written to the hardware, invalid until the first write
+    private final int[] mCommittedColor = new int[LedInfo.LED_COUNT];
+    private int mCommittedOnMs;
+    private int mCommittedOffMs;
+    private int mCommittedOption;
+    private boolean mCommittedValid;
+    private long mCommitIssued;
+    private long mCommitSuppressed;
+
+    // set while a batch is applied, see postEvents and removeEvents
+    private boolean mDeferCommit;
+    private boolean mCommitDeferred;
+    private final int[] mDeferredColor = new int[LedInfo.LED_COUNT];
+    private int mDeferredOnMs;
+    private int mDeferredOffMs;
+    private int mDeferredOption;
+    private int mDeferredAppId;
+    private int mDeferredFrame;
+    private boolean mDeferredFirst;
+
+    // always on frame history, see LedTraceRing
+    private final LedTraceRing mTrace = new LedTraceRing(TRACE_CAPACITY);
+
+    private final LedPatternCache mPatternCache = new LedPatternCache(LedPatternCache.DEFAULT_CAPACITY);
+
+    // post to commit latency per appId, "dumpsys led reset" clears it
+    private final LedLatencyStats mLatency = new LedLatencyStats(LedManager.APPID_TOP);
+
+    // off unless started from dumpsys, see LedEventRecorder
+    private final LedEventRecorder mRecorder = new LedEventRecorder(new File(LedEventRecorder.DIR));
+
+    // requests from postEventAsync and removeEventAsync, see offerInbox
+    private final ConcurrentLinkedQueue<InboxRequest> mInbox = new ConcurrentLinkedQueue<InboxRequest>();
+    private final AtomicBoolean mInboxDrainPosted = new AtomicBoolean();
     Handler mHandler;
 
     LedManagerService(Context context) {
-        mNativePointer = init_native();
+        this(context, LedInfoQueue.TYPE_HEAP);
+    }
+
+    /**
+     * @param queueType LedInfoQueue.TYPE_HEAP or LedInfoQueue.TYPE_BITMAP
+     */
+    LedManagerService(Context context, int queueType) {
+        this(context, queueType, new DeferredLedOutput());
+        // open the HAL off the boot path, frames committed before are buffered
+        ((DeferredLedOutput)mOutput).openAsync(mOneShotEventHandler);
+    }
+
+    /**
+     * @param output where frames are committed, NativeLedOutput on a device
+     */
+    LedManagerService(Context context, int queueType, LedOutput output) {
+        mOutput = output;
         mContext = context;
         mCurrentLedInfo = null;
         mHandler = new LedManagerHandler();
@@ -47,42 +139,242 @@ public class LedManagerService extends ILedManager.Stub {
         mHandlerThread = new HandlerThread(TAG);
         mHandlerThread.start();
         mOneShotEventHandler = new Handler(mHandlerThread.getLooper());
-        mLedInfoQueue = new LedInfoQueue(this, mHandler);
+        mLedInfoQueue = LedInfoQueue.create(queueType, this, mHandler);
     }
 
     public void postEvent(LedInfo ledInfo, int flag, IBinder token) {
-        synchronized(mLock) {
+        final long posted = System.nanoTime();
+        final int appId = ledInfo.getAppId();
+        mLock.lock(LOCK_POST_EVENT);
+        try {
+            final long locked = System.nanoTime();
+            mLatency.record(LedLatencyStats.STAGE_LOCK, appId, locked - posted);
+            mLatency.markPosted(appId, posted);
+            mRecorder.record(LedEventRecorder.TYPE_POST, token, ledInfo);
+            drainInboxLocked();
             // death handler
             // this code must Ap E It U Ya De.
-            final int appId = ledInfo.getAppId();
-            addDeathHandler(appId, token); 
+            if(!addDeathHandler(appId, token)) {
+                return;
+            }
 
+            final long queued = System.nanoTime();
             mLedInfoQueue.enqueueLedInfoLocked(ledInfo);
+            final long processed = System.nanoTime();
+            mLatency.record(LedLatencyStats.STAGE_QUEUE, appId, processed - queued);
             mLedInfoQueue.scheduleLedInfoLocked();
+            mLatency.record(LedLatencyStats.STAGE_PROCESS, appId, System.nanoTime() - processed);
+        } finally {
+            mLock.unlock();
         }
     }
 
     public void removeEvent(LedInfo ledInfo, IBinder token) {
-        synchronized(mLock) {
+        mLock.lock(LOCK_REMOVE_EVENT);
+        try {
+            mRecorder.record(LedEventRecorder.TYPE_REMOVE, token, ledInfo);
+            drainInboxLocked();
             if(mCurrentLedInfo != null && mCurrentLedInfo.getAppId() == ledInfo.getAppId()) {
                 if(DEBUG_SERVICE) Log.d(TAG, "removeEvent: remove current");
                 turnOff();
             }
             mLedInfoQueue.dequeueLedInfoLocked(ledInfo.getAppId());
             mLedInfoQueue.scheduleLedInfoLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public void postEvents(LedInfo[] ledInfos, int flag, IBinder token) {
+        if(ledInfos == null || ledInfos.length == 0) {
+            return;
+        }
+        final long posted = System.nanoTime();
+        mLock.lock(LOCK_POST_EVENTS);
+        try {
+            final long locked = System.nanoTime();
+            mRecorder.recordBatch(LedEventRecorder.TYPE_POSTS, token, ledInfos);
+            drainInboxLocked();
+            mDeferCommit = true;
+            try {
+                // the scheduling pass is shared, only lock and queue are recorded per event
+                for(LedInfo ledInfo : ledInfos) {
+                    if(ledInfo == null) {
+                        continue;
+                    }
+                    final int appId = ledInfo.getAppId();
+                    mLatency.record(LedLatencyStats.STAGE_LOCK, appId, locked - posted);
+                    mLatency.markPosted(appId, posted);
+                    if(!addDeathHandler(appId, token)) {
+                        continue;
+                    }
+                    final long queued = System.nanoTime();
+                    mLedInfoQueue.enqueueLedInfoLocked(ledInfo);
+                    mLatency.record(LedLatencyStats.STAGE_QUEUE, appId, System.nanoTime() - queued);
+                }
+                mLedInfoQueue.scheduleLedInfoLocked();
+                // posted one by one, a one-shot event beaten by a higher one is dropped
+                mLedInfoQueue.dropOneShotEventsLocked();
+            } finally {
+                flushDeferredCommitLocked();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public void removeEvents(LedInfo[] ledInfos, IBinder token) {
+        if(ledInfos == null || ledInfos.length == 0) {
+            return;
+        }
+        mLock.lock(LOCK_REMOVE_EVENTS);
+        try {
+            mRecorder.recordBatch(LedEventRecorder.TYPE_REMOVES, token, ledInfos);
+            drainInboxLocked();
+            mDeferCommit = true;
+            try {
+                for(LedInfo ledInfo : ledInfos) {
+                    if(ledInfo == null) {
+                        continue;
+                    }
+                    if(mCurrentLedInfo != null && mCurrentLedInfo.getAppId() == ledInfo.getAppId()) {
+                        if(DEBUG_SERVICE) Log.d(TAG, "removeEvents: remove current");
+                        turnOff();
+                    }
+                    mLedInfoQueue.dequeueLedInfoLocked(ledInfo.getAppId());
+                }
+                mLedInfoQueue.scheduleLedInfoLocked();
+            } finally {
+                flushDeferredCommitLocked();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public void postEventAsync(LedInfo ledInfo, int flag, IBinder token) {
+        mRecorder.record(LedEventRecorder.TYPE_POST_ASYNC, token, ledInfo);
+        offerInbox(new InboxRequest(InboxRequest.POST, ledInfo, flag, token));
+    }
+
+    public void removeEventAsync(LedInfo ledInfo, IBinder token) {
+        mRecorder.record(LedEventRecorder.TYPE_REMOVE_ASYNC, token, ledInfo);
+        offerInbox(new InboxRequest(InboxRequest.REMOVE, ledInfo, 0, token));
+    }
+
+    /**
+     * A request from the oneway calls, waiting in mInbox.
+     */
+    static final class InboxRequest {
+        static final int POST = 0;
+        static final int REMOVE = 1;
+
+        final int mType;
+        final LedInfo mLedInfo;
+        final int mFlag;
+        final IBinder mToken;
+        // System.nanoTime() of the oneway call
+        final long mTime;
+
+        InboxRequest(int type, LedInfo ledInfo, int flag, IBinder token) {
+            mType = type;
+            mLedInfo = ledInfo;
+            mFlag = flag;
+            mToken = token;
+            mTime = System.nanoTime();
+        }
+    }
+
+    /*
+     * Oneway calls only put the request in mInbox and return, the binder thread never
+     * touches mLock. mOneShotEventHandler's thread is the only consumer.
+     *
+     * Ordering: binder delivers oneway calls on one object in the order they were sent,
+     * and mInbox is FIFO with a single consumer, so oneway requests from one client are
+     * applied in call order. The synchronous calls drain mInbox first, so they never
+     * overtake oneway requests that have already arrived. A synchronous call can still
+     * overtake oneway calls the driver has not delivered yet, so there is no ordering
+     * between the two kinds, see LedManager.postEventAsync.
+     *
+     * The drain is not lock free: the synchronous calls, the one-shot player and the
+     * death handlers all work on mLedInfoQueue and mCurrentLedInfo under mLock, so the
+     * drain takes mLock too, once per burst. Only the binder thread of a oneway call is
+     * kept off the lock. Draining without it would need every one of those paths moved
+     * onto this thread.
+     */
+    private void offerInbox(InboxRequest request) {
+        if(request.mLedInfo == null) {
+            return;
+        }
+        mInbox.offer(request);
+        if(mInboxDrainPosted.compareAndSet(false, true)) {
+            mOneShotEventHandler.post(mDrainInboxRunnable);
+        }
+    }
+
+    private final Runnable mDrainInboxRunnable = new Runnable() {
+        public void run() {
+            mLock.lock(LOCK_DRAIN_INBOX);
+            try {
+                drainInboxLocked();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    };
+
+    /**
+     * Apply every request in mInbox with a single scheduling pass, like a batch.
+     */
+    private void drainInboxLocked() {
+        // clear first, a request offered after this point posts another drain
+        mInboxDrainPosted.set(false);
+        InboxRequest request = mInbox.poll();
+        if(request == null) {
+            return;
+        }
+        mDeferCommit = true;
+        try {
+            for(; request != null; request = mInbox.poll()) {
+                final LedInfo ledInfo = request.mLedInfo;
+                final int appId = ledInfo.getAppId();
+                if(request.mType == InboxRequest.POST) {
+                    final long queued = System.nanoTime();
+                    mLatency.record(LedLatencyStats.STAGE_HANDLER, appId, queued - request.mTime);
+                    mLatency.markPosted(appId, request.mTime);
+                    if(!addDeathHandler(appId, request.mToken)) {
+                        continue;
+                    }
+                    mLedInfoQueue.enqueueLedInfoLocked(ledInfo);
+                    mLatency.record(LedLatencyStats.STAGE_QUEUE, appId, System.nanoTime() - queued);
+                } else {
+                    if(mCurrentLedInfo != null && mCurrentLedInfo.getAppId() == appId) {
+                        if(DEBUG_SERVICE) Log.d(TAG, "drainInbox: remove current");
+                        turnOff();
+                    }
+                    mLedInfoQueue.dequeueLedInfoLocked(appId);
+                }
+            }
+            mLedInfoQueue.scheduleLedInfoLocked();
+            mLedInfoQueue.dropOneShotEventsLocked();
+        } finally {
+            flushDeferredCommitLocked();
         }
     }
 
     private void sceduleLedInfo() {
-        synchronized(mLock) {
+        mLock.lock(LOCK_SCHEDULE);
+        try {
             mLedInfoQueue.scheduleLedInfoLocked();
+        } finally {
+            mLock.unlock();
         }
     }
 
     class LedManagerHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
-            if(DEBUG_SERVICE) Log.d(TAG, "handleMessage: what: " + msg.what + ", info: " + (LedInfo)msg.obj);
+            mTrace.trace(LedTraceRing.TYPE_MESSAGE, 0, msg.what);
             switch (msg.what) {
                 case TURN_OFF_MSG:
                     turnOff();
@@ -95,7 +387,8 @@ public class LedManagerService extends ILedManager.Stub {
     }
 
     protected void processLedEventLocked(LedInfo head) {
-        if(DEBUG_SERVICE) Log.d(TAG, "processLedEvent: [Current : " + mCurrentLedInfo + "], [Head: " + head + "]");
+        mTrace.trace(LedTraceRing.TYPE_PROCESS, head != null ? head.getAppId() : 0,
+                mCurrentLedInfo != null ? mCurrentLedInfo.getAppId() : 0);
         if(mCurrentLedInfo == null && head == null) {
             setFinishEventLocked();
         }
@@ -132,7 +425,8 @@ public class LedManagerService extends ILedManager.Stub {
     }
 
     private void turnOff() {
-        synchronized(mLock) {
+        mLock.lock(LOCK_TURN_OFF);
+        try {
             if(mCurrentLedInfo != null) {
                if(mCurrentLedInfo.isPeriodicEvent()) {
                 	setFinishEventLocked();
@@ -141,223 +435,516 @@ public class LedManagerService extends ILedManager.Stub {
                     mOneShotEventRunnable.stopRunnable();
                 }
             }
+        } finally {
+            mLock.unlock();
         }
     }
 
     private void performPeriodicEventLocked(LedInfo head) {
-        synchronized(mLock) {
+        mLock.lock(LOCK_PERIODIC);
+        try {
             if(DEBUG_SERVICE) Log.d(TAG, "performPeriodicEventLocked: appId : " + head.getAppId());
             mOneShotEventRunnable.stopRunnable();
             mCurrentLedInfo = head;
-            setLedLocked(mCurrentLedInfo.mColor[0], 
-                        mCurrentLedInfo.mColor[1], 
-                        mCurrentLedInfo.mColor[2], 
-                        mCurrentLedInfo.mColor[3], 
-                        mCurrentLedInfo.mColor[4], 
-                        mCurrentLedInfo.mColor[5], 
-                        mCurrentLedInfo.mColor[6], 
-                        mCurrentLedInfo.mOnMs, mCurrentLedInfo.mOffMs, mCurrentLedInfo.mOption);
+            setLedLocked(mCurrentLedInfo.mColor, 0,
+                        mCurrentLedInfo.mOnMs, mCurrentLedInfo.mOffMs, mCurrentLedInfo.mOption,
+                        mCurrentLedInfo.getAppId(), -1, true);
+        } finally {
+            mLock.unlock();
         }
     }
 
     private void performOneShotEventLocked(LedInfo head) {
-        synchronized(mLock) {
+        mLock.lock(LOCK_ONE_SHOT);
+        try {
             if(DEBUG_SERVICE) Log.d(TAG, "performOneShotEventLocked: appId : " + head.getAppId());
             mOneShotEventRunnable.stopRunnable();
             mCurrentLedInfo = head;
-            mOneShotEventRunnable.setLedInfo(head);
-            mOneShotEventHandler.post(mOneShotEventRunnable);
+            mOneShotEventRunnable.startLocked(head);
+        } finally {
+            mLock.unlock();
         }
     }
 
+    /**
+     * Plays a one-shot pattern one frame at a time. Each run() commits a single frame
+     * under mLock and posts itself again for the next one, so mOneShotEventHandler's
+     * thread never blocks and stopping is just removing the pending callback.
+     *
+     * Frames are scheduled against absolute deadlines taken from the cumulative pattern
+     * durations, so the time spent committing a frame does not push the following ones.
+     * A frame whose successor is already due when it runs is skipped.
+     *
+     * When the output has a pattern player (the HAL implements oem_play_pattern) the
+     * whole pattern is handed down in one call, and run() only wakes up at the end to finish the event.
+     */
     class OneShotEvent implements Runnable {
 
         private int mPatternCount;
         private int mRepeat;
-        private boolean mStopSignal;
         private boolean mIsRunning;
         private LedInfo mLedInfo;
+        // shared with mLedInfo, immutable
+        private LedPattern mPattern;
+        private int mCycleMs;
+        private long mStartTime;
+        // System.nanoTime() of startLocked, for the handler hop of the first frame
+        private long mStartNanos;
+        // next frame to commit, counted across repeats
+        private long mFrame;
+        // the output is playing mPattern, run() only finishes the event
+        private boolean mOutputPlaying;
+
+        // per appId drift statistics of the last played event
+        private final long[] mStatFrames = new long[LedManager.APPID_TOP];
+        private final long[] mStatSkipped = new long[LedManager.APPID_TOP];
+        private final long[] mStatLateSum = new long[LedManager.APPID_TOP];
+        private final long[] mStatLateMax = new long[LedManager.APPID_TOP];
 
         public void run() {
-            synchronized(this) {
-                mIsRunning = true;
-                if(DEBUG_SERVICE) Log.d(TAG, "---begin OneShotEvent");
-                mStopSignal = false;
-                mPatternCount = mLedInfo.getPatternCount();
-                mRepeat = mLedInfo.getRepeatCount();
-                for(int repeat=0; repeat < mRepeat && !mStopSignal; repeat++) {
-                    for(int patternIndex=0; patternIndex < mPatternCount && !mStopSignal; patternIndex++) {
-                        int pattern[] = mLedInfo.getPattern(patternIndex);
-                        int duration = pattern[0];
-                        setLedLocked(pattern[1], 
-                                    pattern[2],
-                                    pattern[3],
-                                    pattern[4],
-                                    pattern[5],
-                                    pattern[6],
-                                    pattern[7],
-                                    0, 0, mLedInfo.mOption);
-                        try {
-                            wait(duration);
-                        } catch(InterruptedException e) {
-                        }
-                    }
+            mLock.lock(LOCK_ONE_SHOT_FRAME);
+            try {
+                if(!mIsRunning) {
+                    return;
                 }
-
-                if(!mStopSignal) {
+                final long now = SystemClock.uptimeMillis();
+                final long elapsed = now - mStartTime;
+                final long end = (long)mCycleMs * mRepeat;
+                if(elapsed >= end) {
+                    if(DEBUG_SERVICE) Log.d(TAG, "---end OneShotEvent");
+                    mIsRunning = false;
+                    // the output may still be on its last frame, take the leds back first
+                    stopOutputLocked();
                     setFinishEventLocked();
                     mHandler.sendMessage(mHandler.obtainMessage(SCHEDULE_EVENT_MSG));
+                    return;
+                }
+                if(mOutputPlaying) {
+                    mOneShotEventHandler.postAtTime(this, mStartTime + end);
+                    return;
+                }
+
+                // the frame due now. anything between mFrame and it is already over
+                long frame = frameAt(elapsed);
+                if(frame < mFrame) {
+                    frame = mFrame;
                 }
-                if(DEBUG_SERVICE) Log.d(TAG, "---end OneShotEvent");
-                mIsRunning = false;
+                final int appId = mLedInfo.getAppId();
+                if(mFrame == 0) {
+                    mLatency.record(LedLatencyStats.STAGE_HANDLER, appId, System.nanoTime() - mStartNanos);
+                }
+                final long late = now - (mStartTime + frameStart(frame));
+                mStatFrames[appId]++;
+                mStatSkipped[appId] += frame - mFrame;
+                mStatLateSum[appId] += late;
+                if(late > mStatLateMax[appId]) {
+                    mStatLateMax[appId] = late;
+                }
+
+                setLedLocked(mPattern.getFrames(), mPattern.getColorOffset((int)(frame % mPatternCount)),
+                            0, 0, mLedInfo.mOption, appId, (int)frame, mFrame == 0);
+                mFrame = frame + 1;
+                mOneShotEventHandler.postAtTime(this, mStartTime + frameStart(mFrame));
+            } finally {
+                mLock.unlock();
             }
         }
 
-        public void setLedInfo(LedInfo info) {
-            // for call by value
-            if(info.isPeriodicEvent()) {
-                mLedInfo = new LedInfo(info.getAppId(), info.mColor, info.mOnMs, info.mOffMs);
+        public void startLocked(LedInfo info) {
+            if(DEBUG_SERVICE) Log.d(TAG, "---begin OneShotEvent");
+            // LedPattern is immutable, no need to copy the event
+            mLedInfo = info;
+            mPattern = info.getCompiledPattern();
+            mPatternCount = mPattern.getFrameCount();
+            mRepeat = info.getRepeatCount();
+            mCycleMs = mPattern.getTotalDuration();
+
+            final int appId = mLedInfo.getAppId();
+            mStatFrames[appId] = 0;
+            mStatSkipped[appId] = 0;
+            mStatLateSum[appId] = 0;
+            mStatLateMax[appId] = 0;
+
+            mFrame = 0;
+            mIsRunning = true;
+            mStartTime = SystemClock.uptimeMillis();
+            mStartNanos = System.nanoTime();
+            if(mOutput.hasPatternPlayer() && mOutput.playPattern(mPattern.getFrames(),
+                    mPatternCount, LedPattern.STRIDE, mRepeat, mLedInfo.mOption)) {
+                // the output owns the leds until the pattern ends, wake up only to finish it
+                final long played = System.nanoTime();
+                mLatency.record(LedLatencyStats.STAGE_COMMIT, appId, played - mStartNanos);
+                mLatency.markShown(appId, played);
+                mTrace.trace(LedTraceRing.TYPE_PATTERN_PLAY, appId, mRepeat);
+                mOutputPlaying = true;
+                mCommitDeferred = false;
+                mCommittedValid = false;
+                mOneShotEventHandler.postAtTime(this, mStartTime + (long)mCycleMs * mRepeat);
+                return;
             }
-            else {
-                final int N = info.mPattern.length;
-                final int M = info.mPattern[0].length;
-                int pattern[][] = new int[N][M];
-                for(int i=0;i<N;i++) {
-                    for(int j=0;j<M;j++) {
-                        pattern[i][j] = info.mPattern[i][j];
-                    }
+            mOutputPlaying = false;
+            mOneShotEventHandler.postAtTime(this, mStartTime);
+        }
+
+        private long frameStart(long frame) {
+            return (frame / mPatternCount) * mCycleMs + mPattern.getFrameStart((int)(frame % mPatternCount));
+        }
+
+        private long frameAt(long elapsed) {
+            final long repeat = elapsed / mCycleMs;
+            final int within = (int)(elapsed - repeat * mCycleMs);
+            return repeat * mPatternCount + mPattern.frameAt(within);
+        }
+
+        void dumpLocked(PrintWriter pw) {
+            for(int appId=0; appId<mStatFrames.length; appId++) {
+                if(mStatFrames[appId] == 0) {
+                    continue;
                 }
-               
-                mLedInfo = new LedInfo(info.getAppId(), pattern, info.getRepeatCount());
+                pw.println("  - AppId : " + appId
+                        + ", frames : " + mStatFrames[appId]
+                        + ", skipped : " + mStatSkipped[appId]
+                        + ", late avg : " + (mStatLateSum[appId] / mStatFrames[appId]) + "ms"
+                        + ", late max : " + mStatLateMax[appId] + "ms");
+            }
+        }
+
+        private void stopOutputLocked() {
+            if(mOutputPlaying) {
+                mOutputPlaying = false;
+                mOutput.stopPattern();
+                mTrace.trace(LedTraceRing.TYPE_PATTERN_STOP, mLedInfo.getAppId(), 0);
+                // the hardware shows whatever the player left, commit the next frame for real
+                mCommittedValid = false;
             }
         }
 
         public void stopRunnable() {
-            synchronized(this) {
+            mLock.lock(LOCK_ONE_SHOT_STOP);
+            try {
                 if(mIsRunning) {
-                    mStopSignal = true;
-                    notify();
+                    mIsRunning = false;
+                    mOneShotEventHandler.removeCallbacks(this);
+                    stopOutputLocked();
                     setFinishEventLocked();
                 }
+            } finally {
+                mLock.unlock();
             }
         }
     }
 
+    /**
+     * Resolve the compiled pattern of a one-shot event through mPatternCache.
+     *
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    protected LedPattern internPatternLocked(LedInfo info) {
+        return mPatternCache.intern(info);
+    }
+
     private void setFinishEventLocked() {
         if(DEBUG_SERVICE) Log.d(TAG, "setFinishEventLocked");
 
         // death handler
+        int appId = 0;
         if(mCurrentLedInfo != null) {
-            final int appId = mCurrentLedInfo.getAppId();
+            appId = mCurrentLedInfo.getAppId();
             removeDeathHandler(appId);
         }
 
-        setLedLocked(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+        setLedLocked(OFF_COLORS, 0, 0, 0, 0, appId, -1, false);
         mCurrentLedInfo = null;
     }
 
-    private void setLedLocked(int led1, int led2, int led3, int led4, int led5, int led6, int led7, int onMs, int offMs, int option) {
-        setLed_native(mNativePointer, led1, led2, led3, led4, led5, led6, led7, onMs, offMs, option);
+    private void flushDeferredCommitLocked() {
+        mDeferCommit = false;
+        if(mCommitDeferred) {
+            mCommitDeferred = false;
+            setLedLocked(mDeferredColor, 0, mDeferredOnMs, mDeferredOffMs, mDeferredOption,
+                    mDeferredAppId, mDeferredFrame, mDeferredFirst);
+        }
+    }
+
+    /**
+     * Commit one frame: LedInfo.LED_COUNT colors starting at colors[offset].
+     * appId and frame (-1 outside of a one-shot pattern) only go to the trace.
+     * first is set for the first frame of appId's event, which is marked shown when the
+     * frame reaches the hardware.
+     */
+    private void setLedLocked(int[] colors, int offset, int onMs, int offMs, int option,
+            int appId, int frame, boolean first) {
+        final int N = LedInfo.LED_COUNT;
+        if(mDeferCommit) {
+            // inside a batch only the last frame reaches the hardware.
+            // a later frame of the same event keeps the first one pending
+            mDeferredFirst = first
+                    || (mCommitDeferred && mDeferredFirst && mDeferredAppId == appId);
+            System.arraycopy(colors, offset, mDeferredColor, 0, N);
+            mDeferredOnMs = onMs;
+            mDeferredOffMs = offMs;
+            mDeferredOption = option;
+            mDeferredAppId = appId;
+            mDeferredFrame = frame;
+            mCommitDeferred = true;
+            return;
+        }
+        // skip the output round trip if the hardware already shows this frame
+        if(mCommittedValid && mCommittedOnMs == onMs && mCommittedOffMs == offMs
+                && mCommittedOption == option && sameColors(colors, offset)) {
+            mCommitSuppressed++;
+            if(first) {
+                mLatency.markShown(appId, System.nanoTime());
+            }
+            return;
+        }
+        final long start = System.nanoTime();
+        mOutput.setFrame(colors, offset, onMs, offMs, option);
+        final long shown = System.nanoTime();
+        mLatency.record(LedLatencyStats.STAGE_COMMIT, appId, shown - start);
+        if(first) {
+            mLatency.markShown(appId, shown);
+        }
+        mTrace.trace(LedTraceRing.TYPE_COMMIT, appId, frame, colors, offset, onMs, offMs, option);
+        mCommitIssued++;
+        System.arraycopy(colors, offset, mCommittedColor, 0, N);
+        mCommittedOnMs = onMs;
+        mCommittedOffMs = offMs;
+        mCommittedOption = option;
+        mCommittedValid = true;
+    }
+
+    private boolean sameColors(int[] colors, int offset) {
+        final int[] c = mCommittedColor;
+        for(int i=0; i<c.length; i++) {
+            if(c[i] != colors[offset + i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
+    /**
+     * One death recipient per client token, linked once and shared by every appId
+     * the token has posted.
+     */
     private class LedClientDeathHandler implements IBinder.DeathRecipient {
         private IBinder mToken;
-        private int mAppId;
+        private final SparseBooleanArray mAppIds = new SparseBooleanArray();
 
-        LedClientDeathHandler(IBinder token, int appId) {
+        LedClientDeathHandler(IBinder token) {
             mToken = token;
-            mAppId = appId;
         }
 
         @Override
         public void binderDied() {
-            Log.w(TAG, "binderDied. appId : " + mAppId);
+            Log.w(TAG, "binderDied. " + this);
 
-            synchronized(mLock) {
-                // 1. remove info from LedClientDeathHandlers
+            mLock.lock(LOCK_BINDER_DIED);
+            try {
+                mRecorder.recordDied(mToken);
+                // 1. remove info from death handler registry
                 mToken.unlinkToDeath(this, 0);
-                int index = findDeathHandlerIndexLocked(mAppId);
-                if(index > -1) {
-                    mLedClientDeathHandlers.remove(index);
+                mDeathHandlersByToken.remove(mToken);
+                final int N = mAppIds.size();
+                final int[] appIds = new int[N];
+                for(int i=0; i<N; i++) {
+                    appIds[i] = mAppIds.keyAt(i);
+                    mDeathHandlers.delete(appIds[i]);
                 }
+                mAppIds.clear();
 
-                // 2. remove info from LedInfoQueue. don't care duplicated deletion. 
-                mLedInfoQueue.dequeueLedInfoLocked(mAppId);
+                for(int appId : appIds) {
+                    // 2. remove info from LedInfoQueue. don't care duplicated deletion. 
+                    mLedInfoQueue.dequeueLedInfoLocked(appId);
 
-                // turn off Led
-                if(mCurrentLedInfo != null && mCurrentLedInfo.getAppId() == mAppId) {
-                    if(mCurrentLedInfo.isPeriodicEvent()) {
-                        setFinishEventLocked();
-                    }
-                    else {
-                        mOneShotEventRunnable.stopRunnable();
+                    // turn off Led
+                    if(mCurrentLedInfo != null && mCurrentLedInfo.getAppId() == appId) {
+                        if(mCurrentLedInfo.isPeriodicEvent()) {
+                            setFinishEventLocked();
+                        }
+                        else {
+                            mOneShotEventRunnable.stopRunnable();
+                        }
                     }
                 }
+            } finally {
+                mLock.unlock();
             }
         }
 
-        public int getAppId() {
-            return mAppId;
-        }
-
         public IBinder getBinder() {
             return mToken;
         }
 
         @Override
         public String toString() {
-            return "AppId : " + mAppId;
-        }
-    }
-
-    private int findDeathHandlerIndexLocked(int appId) {
-        final int size = mLedClientDeathHandlers.size();
-        for(int index=0; index < size; index++) {
-            LedClientDeathHandler h = mLedClientDeathHandlers.get(index);
-            if(h.getAppId() == appId)
-                return index;
+            StringBuilder builder = new StringBuilder();
+            builder.append("AppId :");
+            for(int i=0; i<mAppIds.size(); i++) {
+                builder.append(" ").append(mAppIds.keyAt(i));
+            }
+            return builder.toString();
         }
-        
-        return -1;
     }
 
-    protected void addDeathHandler(int appId, IBinder token) {
+    /**
+     * @return false if the client died before its token could be watched. Nothing is
+     *         registered and the caller must drop the event, binderDied would never
+     *         come to remove it.
+     */
+    protected boolean addDeathHandler(int appId, IBinder token) {
         // death handler
-        final int index = findDeathHandlerIndexLocked(appId);
-        if(appId > -1 && index == -1) {
-            if(DEBUG_DEATH) Log.d(TAG, "add death handler id : " + appId);
-            LedClientDeathHandler h = new LedClientDeathHandler(token, appId);
+        if(appId < 0 || token == null || mDeathHandlers.get(appId) != null) {
+            return true;
+        }
+        if(DEBUG_DEATH) Log.d(TAG, "add death handler id : " + appId);
+        LedClientDeathHandler h = mDeathHandlersByToken.get(token);
+        if(h == null) {
+            h = new LedClientDeathHandler(token);
             try {
                 token.linkToDeath(h, 0);
-            } catch(RemoteException e) {}
-            mLedClientDeathHandlers.add(h);
+            } catch(RemoteException e) {
+                Log.w(TAG, "Client already died, drop event id : " + appId);
+                return false;
+            }
+            mDeathHandlersByToken.put(token, h);
         }
+        h.mAppIds.put(appId, true);
+        mDeathHandlers.put(appId, h);
+        return true;
     }
+
     protected void removeDeathHandler(int appId) {
-        final int index = findDeathHandlerIndexLocked(appId);
-        if(index == -1)
+        final LedClientDeathHandler h = mDeathHandlers.get(appId);
+        if(h == null)
             return;
         if(DEBUG_DEATH) Log.d(TAG, "remove death handler id : " + appId);
-        LedClientDeathHandler h = mLedClientDeathHandlers.remove(index);
-        h.getBinder().unlinkToDeath(h, 0);
+        mDeathHandlers.delete(appId);
+        h.mAppIds.delete(appId);
+        if(h.mAppIds.size() == 0) {
+            // last event of this token, stop watching it
+            mDeathHandlersByToken.remove(h.getBinder());
+            h.getBinder().unlinkToDeath(h, 0);
+        }
+    }
+
+    /** Tokens with a death handler, for the host tools in services/tests/ledbench */
+    IBinder[] getDeathTokensLocked() {
+        return mDeathHandlersByToken.keySet().toArray(new IBinder[mDeathHandlersByToken.size()]);
+    }
+
+    /** appIds with a death handler, for the host tools in services/tests/ledbench */
+    int[] getDeathAppIdsLocked() {
+        final int N = mDeathHandlers.size();
+        final int[] appIds = new int[N];
+        for(int i=0; i<N; i++) {
+            appIds[i] = mDeathHandlers.keyAt(i);
+        }
+        return appIds;
     }
 
-    private static native int init_native();
-    private static native void setLed_native(int ptr, int led1, int led2, int led3, int led4, int led5, int led6, int led7, int onMs, int offMs, int option);
+    /**
+     * SystemClock.uptimeMillis() the frames of the current one-shot event are scheduled
+     * from, for the host tools in services/tests/ledbench
+     */
+    long getOneShotStartTimeLocked() {
+        return mOneShotEventRunnable.mStartTime;
+    }
+
+    private static boolean isDumpKeyword(String arg) {
+        return "trace".equals(arg) || "reset".equals(arg) || "locktrace".equals(arg)
+                || "record".equals(arg);
+    }
 
     @Override
     protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
         mContext.enforceCallingOrSelfPermission(android.Manifest.permission.DUMP, TAG);
         
-        pw.println("Current Led info:");
-        pw.print(mCurrentLedInfo);
-        pw.println();
-        pw.println("\nLedInfoQueue:");
-        mLedInfoQueue.dumpQueue(pw);
-        pw.println("\nDeathHandler List:");
-        for(LedClientDeathHandler handler : mLedClientDeathHandlers) {
-            pw.println("  - " + handler.toString());
+        mLock.lock(LOCK_DUMP);
+        try {
+            pw.println("Current Led info:");
+            pw.print(mCurrentLedInfo);
+            pw.println();
+            pw.println("\nLedInfoQueue:");
+            mLedInfoQueue.dumpQueueLocked(pw);
+            pw.println("\nDeathHandler List:");
+            for(LedClientDeathHandler handler : mDeathHandlersByToken.values()) {
+                pw.println("  - " + handler.toString());
+            }
+        } finally {
+            mLock.unlock();
+        }
+        pw.println("\nOneShotEvent drift:");
+        mLock.lock(LOCK_DUMP);
+        try {
+            mOneShotEventRunnable.dumpLocked(pw);
+            pw.println("\nPattern cache:");
+            mPatternCache.dump(pw);
+            pw.println("\nHardware commits:");
+            pw.println("  output : " + mOutput);
+            pw.println("  issued : " + mCommitIssued + ", suppressed : " + mCommitSuppressed);
+        } finally {
+            mLock.unlock();
+        }
+
+        boolean all = false;
+        boolean reset = false;
+        // "locktrace on" / "locktrace off"
+        int lockTrace = -1;
+        // "record start [name]" / "record stop", name is a new file in LedEventRecorder.DIR
+        String record = null;
+        String recordName = LedEventRecorder.DEFAULT_NAME;
+        if(args != null) {
+            for(int i=0; i<args.length; i++) {
+                final String arg = args[i];
+                if("trace".equals(arg)) {
+                    all = true;
+                } else if("reset".equals(arg)) {
+                    reset = true;
+                } else if("locktrace".equals(arg) && i + 1 < args.length) {
+                    lockTrace = "on".equals(args[++i]) ? 1 : 0;
+                } else if("record".equals(arg) && i + 1 < args.length) {
+                    record = args[++i];
+                    if(i + 1 < args.length && !isDumpKeyword(args[i + 1])) {
+                        recordName = args[++i];
+                    }
+                }
+            }
+        }
+        pw.println("\nLatency:" + (reset ? " (reset)" : ""));
+        mLock.lock(LOCK_DUMP);
+        try {
+            mLatency.dump(pw);
+            if(lockTrace >= 0) {
+                mLock.setTrace(mTrace, lockTrace == 1);
+            }
+            pw.println("\nLocks:" + (reset ? " (reset)" : ""));
+            for(int i=0; i<LOCK_SITES.length; i++) {
+                pw.print((i == 0 ? "  sites :" : ",") + " " + i + "=" + LOCK_SITES[i]);
+            }
+            pw.println();
+            mLock.dump(pw);
+            if(reset) {
+                mLatency.reset();
+                mLock.reset();
+            }
+        } finally {
+            mLock.unlock();
+        }
+        pw.println("\nRecorder:");
+        if("start".equals(record)) {
+            try {
+                mRecorder.start(recordName);
+            } catch(IllegalArgumentException e) {
+                pw.println("  cannot record to " + recordName + " : " + e.getMessage());
+            }
+        } else if("stop".equals(record)) {
+            mRecorder.stop();
         }
+        mRecorder.dump(pw);
+        pw.println("\nTrace:");
+        mTrace.dump(pw, all ? TRACE_CAPACITY : TRACE_DUMP_DEFAULT);
 
     }
 }
@@ -0,0 +1,34 @@
+package com.android.server;
+
+/**
+ * Where LedManagerService commits its frames.
+ *
+ * {@link NativeLedOutput} drives the lights HAL. {@link RecordingLedOutput} and
+ * {@link FakeSysfsLedOutput} need no native code, so the queue, scheduler and death
+ * handling can run and be measured on a plain JVM.
+ * All methods are called under LedManagerService.mLock.
+ */
+interface LedOutput {
+
+    /**
+     * Show one frame: LedInfo.LED_COUNT colors starting at colors[offset].
+     * colors is only read during the call.
+     */
+    void setFrame(int[] colors, int offset, int onMs, int offMs, int option);
+
+    /** @return true if {@link #playPattern} is supported */
+    boolean hasPatternPlayer();
+
+    /**
+     * Play a compiled pattern without further calls, frames as in LedPattern.getFrames().
+     *
+     * @return false if the pattern was not taken, the caller then plays it frame by frame
+     */
+    boolean playPattern(int[] frames, int frameCount, int stride, int repeat, int option);
+
+    /**
+     * Stop a pattern started by {@link #playPattern}, a no-op if it already ended. The leds
+     * are left as they are, and nothing is written to them once this returns.
+     */
+    void stopPattern();
+}
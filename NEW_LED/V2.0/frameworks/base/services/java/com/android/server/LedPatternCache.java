@@ -0,0 +1,101 @@
+package com.android.server;
+
+import java.io.PrintWriter;
+import android.util.SparseArray;
+import com.android.internal.pantech.led.LedInfo;
+import com.android.internal.pantech.led.LedPattern;
+
+/**
+ * Bounded LRU cache of compiled one-shot patterns, keyed by content hash.
+ *
+ * Apps post the same few patterns over and over. A posted LedInfo whose pattern is
+ * already cached gets the shared LedPattern and skips compiling and validation.
+ * Entries are in a SparseArray, the use order in a ring of keys, oldest first, so a
+ * lookup does not box the key. Not thread safe, used under LedManagerService.mLock.
+ */
+class LedPatternCache {
+
+    static final int DEFAULT_CAPACITY = 32;
+
+    private final int mCapacity;
+    private final SparseArray<LedPattern> mEntries;
+    // keys of mEntries, least recently used at mHead
+    private final int[] mOrder;
+    private int mHead;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private int mFootprint;
+
+    LedPatternCache(int capacity) {
+        mCapacity = capacity;
+        mEntries = new SparseArray<LedPattern>(capacity);
+        mOrder = new int[capacity];
+    }
+
+    /**
+     * Attach the shared compiled pattern to a one-shot event, compiling and caching it
+     * on a miss.
+     *
+     * @throws IllegalArgumentException if the pattern is malformed
+     */
+    LedPattern intern(LedInfo info) {
+        final int key = info.getPatternHash();
+        final LedPattern cached = mEntries.get(key);
+        if(cached != null && (cached == info.peekCompiledPattern()
+                || cached.contentEquals(info.mPattern))) {
+            mHits++;
+            touch(key);
+            info.setCompiledPattern(cached);
+            return cached;
+        }
+        mMisses++;
+        final LedPattern compiled = info.getCompiledPattern();
+        if(cached != null) {
+            // a colliding entry with another content is simply replaced
+            mFootprint -= cached.getFootprint();
+            mEntries.put(key, compiled);
+            touch(key);
+        } else {
+            if(mEntries.size() == mCapacity) {
+                evictEldest();
+            }
+            mEntries.put(key, compiled);
+            mOrder[(mHead + mEntries.size() - 1) % mCapacity] = key;
+        }
+        mFootprint += compiled.getFootprint();
+        return compiled;
+    }
+
+    /** Move key to the most recently used end of mOrder */
+    private void touch(int key) {
+        final int N = mEntries.size();
+        // hits are mostly on recent entries, search from the newest
+        int i = N - 1;
+        while(i > 0 && mOrder[(mHead + i) % mCapacity] != key) {
+            i--;
+        }
+        for(; i < N - 1; i++) {
+            mOrder[(mHead + i) % mCapacity] = mOrder[(mHead + i + 1) % mCapacity];
+        }
+        mOrder[(mHead + N - 1) % mCapacity] = key;
+    }
+
+    private void evictEldest() {
+        final int key = mOrder[mHead];
+        mHead = (mHead + 1) % mCapacity;
+        mFootprint -= mEntries.get(key).getFootprint();
+        mEntries.delete(key);
+        mEvictions++;
+    }
+
+    void dump(PrintWriter pw) {
+        final long lookups = mHits + mMisses;
+        pw.println("  entries : " + mEntries.size() + "/" + mCapacity
+                + ", hits : " + mHits
+                + ", misses : " + mMisses
+                + ", hit rate : " + (lookups == 0 ? 0 : mHits * 100 / lookups) + "%"
+                + ", evictions : " + mEvictions
+                + ", footprint : " + mFootprint + " bytes");
+    }
+}
@@ -0,0 +1,157 @@
+package com.android.server;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import com.android.internal.pantech.led.LedInfo;
+
+/**
+ * Fixed size binary history of what LedManagerService did, for dumpsys led.
+ *
+ * Records are written without locks and without allocation: a writer claims a sequence
+ * number, fills the slot it maps to and publishes the sequence number in the slot stamp.
+ * Nothing is formatted until {@link #dump} is called. A reader skips a slot whose stamp
+ * changed while it was copied, which can only happen when writers lap it.
+ *
+ * Ordering, like a seqlock: the writer invalidates the stamp with a volatile store, then
+ * writes the payload with lazySet, which is not reordered with earlier stores, then
+ * publishes the stamp. The reader reads the stamp, the payload and the stamp again, all
+ * volatile, so a payload write of a lapping writer seen by the copy means the second
+ * stamp read cannot return the old sequence number. Plain arrays would let the payload
+ * stores move above the invalidation, and the copy would take torn records.
+ */
+final class LedTraceRing {
+
+    static final int TYPE_COMMIT = 1;
+    static final int TYPE_PATTERN_PLAY = 2;
+    static final int TYPE_PATTERN_STOP = 3;
+    static final int TYPE_PROCESS = 4;
+    static final int TYPE_MESSAGE = 5;
+    // appId is the LedLock site, arg the time in us
+    static final int TYPE_LOCK_WAIT = 6;
+    static final int TYPE_LOCK_HOLD = 7;
+
+    private static final String[] TYPE_NAMES = {
+        "?", "COMMIT", "PLAY", "STOP", "PROCESS", "MESSAGE", "LOCK_WAIT", "LOCK_HOLD"
+    };
+
+    // type, appId, frame, onMs, offMs, option, then the colors
+    private static final int HEADER = 6;
+    private static final int STRIDE = HEADER + LedInfo.LED_COUNT;
+
+    private final int mMask;
+    private final AtomicIntegerArray mData;
+    private final AtomicLongArray mTimes;
+    private final AtomicLongArray mStamps;
+    private final AtomicLong mNext = new AtomicLong();
+
+    /**
+     * @param capacity number of records kept, a power of two
+     */
+    LedTraceRing(int capacity) {
+        if(capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("capacity must be a power of two : " + capacity);
+        }
+        mMask = capacity - 1;
+        mData = new AtomicIntegerArray(capacity * STRIDE);
+        mTimes = new AtomicLongArray(capacity);
+        mStamps = new AtomicLongArray(capacity);
+        for(int i=0; i<capacity; i++) {
+            mStamps.set(i, -1);
+        }
+    }
+
+    /**
+     * Record an event without colors. arg goes in the frame field.
+     */
+    void trace(int type, int appId, int arg) {
+        final long seq = mNext.getAndIncrement();
+        final int slot = (int)seq & mMask;
+        final int base = slot * STRIDE;
+        mStamps.set(slot, -1);
+        mTimes.lazySet(slot, System.nanoTime());
+        mData.lazySet(base, type);
+        mData.lazySet(base + 1, appId);
+        mData.lazySet(base + 2, arg);
+        for(int i=3; i<STRIDE; i++) {
+            mData.lazySet(base + i, 0);
+        }
+        mStamps.set(slot, seq);
+    }
+
+    /**
+     * Record a frame: LedInfo.LED_COUNT colors starting at colors[offset].
+     */
+    void trace(int type, int appId, int frame, int[] colors, int offset,
+            int onMs, int offMs, int option) {
+        final long seq = mNext.getAndIncrement();
+        final int slot = (int)seq & mMask;
+        final int base = slot * STRIDE;
+        mStamps.set(slot, -1);
+        mTimes.lazySet(slot, System.nanoTime());
+        mData.lazySet(base, type);
+        mData.lazySet(base + 1, appId);
+        mData.lazySet(base + 2, frame);
+        mData.lazySet(base + 3, onMs);
+        mData.lazySet(base + 4, offMs);
+        mData.lazySet(base + 5, option);
+        for(int i=0; i<LedInfo.LED_COUNT; i++) {
+            mData.lazySet(base + HEADER + i, colors[offset + i]);
+        }
+        mStamps.set(slot, seq);
+    }
+
+    /**
+     * Decode the newest records, oldest first.
+     *
+     * @param max number of records to print, at most the capacity
+     */
+    void dump(PrintWriter pw, int max) {
+        final long next = mNext.get();
+        final int capacity = mMask + 1;
+        final long count = Math.min(Math.min(next, capacity), max);
+        final long now = System.nanoTime();
+        final int[] record = new int[STRIDE];
+        pw.println("  (" + count + " of " + next + " records)");
+        for(long seq = next - count; seq < next; seq++) {
+            final int slot = (int)seq & mMask;
+            if(mStamps.get(slot) != seq) {
+                continue;
+            }
+            final long time = mTimes.get(slot);
+            final int base = slot * STRIDE;
+            for(int i=0; i<STRIDE; i++) {
+                record[i] = mData.get(base + i);
+            }
+            // the payload reads are volatile, this read cannot move above them
+            if(mStamps.get(slot) != seq) {
+                continue;
+            }
+            final int type = record[0];
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("  ").append((time - now) / 1000000).append("ms ")
+                    .append(type > 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type] : TYPE_NAMES[0]);
+            if(type == TYPE_LOCK_WAIT || type == TYPE_LOCK_HOLD) {
+                sb.append(" site : ").append(record[1])
+                        .append(", us : ").append(record[2]);
+                pw.println(sb.toString());
+                continue;
+            }
+            sb.append(" appId : ").append(record[1]);
+            if(type == TYPE_COMMIT) {
+                sb.append(", frame : ").append(record[2])
+                        .append(", onMs : ").append(record[3])
+                        .append(", offMs : ").append(record[4])
+                        .append(", option : ").append(record[5])
+                        .append(", colors :");
+                for(int i=HEADER; i<STRIDE; i++) {
+                    sb.append(' ').append(Integer.toHexString(record[i]));
+                }
+            } else {
+                sb.append(", arg : ").append(record[2]);
+            }
+            pw.println(sb.toString());
+        }
+    }
+}
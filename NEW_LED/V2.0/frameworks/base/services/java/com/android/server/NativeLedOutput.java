@@ -0,0 +1,39 @@
+package com.android.server;
+
+import com.android.internal.pantech.led.LedInfo;
+
+/**
+ * LedOutput backed by the oem led device of the lights HAL.
+ */
+class NativeLedOutput implements LedOutput {
+
+    private final int mNativePointer;
+    private final boolean mPatternPlayer;
+
+    NativeLedOutput() {
+        mNativePointer = init_native();
+        mPatternPlayer = hasPatternPlayer_native(mNativePointer);
+    }
+
+    public void setFrame(int[] colors, int offset, int onMs, int offMs, int option) {
+        setLedFrame_native(mNativePointer, colors, offset, LedInfo.LED_COUNT, onMs, offMs, option);
+    }
+
+    public boolean hasPatternPlayer() {
+        return mPatternPlayer;
+    }
+
+    public boolean playPattern(int[] frames, int frameCount, int stride, int repeat, int option) {
+        return playPattern_native(mNativePointer, frames, frameCount, stride, repeat, option) == 0;
+    }
+
+    public void stopPattern() {
+        stopPattern_native(mNativePointer);
+    }
+
+    private static native int init_native();
+    private static native void setLedFrame_native(int ptr, int[] colors, int offset, int count, int onMs, int offMs, int option);
+    private static native boolean hasPatternPlayer_native(int ptr);
+    private static native int playPattern_native(int ptr, int[] frames, int frameCount, int stride, int repeat, int option);
+    private static native void stopPattern_native(int ptr);
+}
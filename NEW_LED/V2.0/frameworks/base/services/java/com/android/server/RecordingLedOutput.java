@@ -0,0 +1,103 @@
+package com.android.server;
+
+import com.android.internal.pantech.led.LedInfo;
+
+/**
+ * LedOutput that keeps the last committed frames in memory.
+ *
+ * Frames go into a ring of fixed capacity, nothing is allocated per frame. Each record
+ * holds the colors, onMs, offMs, option and the System.nanoTime() of the commit.
+ * Methods are synchronized so a reader on another thread sees whole records.
+ */
+class RecordingLedOutput implements LedOutput {
+
+    static final int RECORD_STRIDE = LedInfo.LED_COUNT + 3;
+
+    private final int mCapacity;
+    private final int[] mRecords;
+    private final long[] mTimes;
+    private final boolean mPatternPlayer;
+    private long mFrameCount;
+    private long mPatternsPlayed;
+    private boolean mPatternPlaying;
+
+    RecordingLedOutput(int capacity) {
+        this(capacity, false);
+    }
+
+    /**
+     * @param patternPlayer accept playPattern, the pattern itself is not recorded
+     */
+    RecordingLedOutput(int capacity, boolean patternPlayer) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("capacity : " + capacity);
+        }
+        mCapacity = capacity;
+        mRecords = new int[capacity * RECORD_STRIDE];
+        mTimes = new long[capacity];
+        mPatternPlayer = patternPlayer;
+    }
+
+    public synchronized void setFrame(int[] colors, int offset, int onMs, int offMs, int option) {
+        final int slot = (int)(mFrameCount % mCapacity);
+        final int base = slot * RECORD_STRIDE;
+        System.arraycopy(colors, offset, mRecords, base, LedInfo.LED_COUNT);
+        mRecords[base + LedInfo.LED_COUNT] = onMs;
+        mRecords[base + LedInfo.LED_COUNT + 1] = offMs;
+        mRecords[base + LedInfo.LED_COUNT + 2] = option;
+        mTimes[slot] = System.nanoTime();
+        mFrameCount++;
+    }
+
+    public boolean hasPatternPlayer() {
+        return mPatternPlayer;
+    }
+
+    public synchronized boolean playPattern(int[] frames, int frameCount, int stride, int repeat, int option) {
+        if(!mPatternPlayer) {
+            return false;
+        }
+        mPatternsPlayed++;
+        mPatternPlaying = true;
+        return true;
+    }
+
+    public synchronized void stopPattern() {
+        mPatternPlaying = false;
+    }
+
+    /** @return number of frames committed since creation or the last clear() */
+    synchronized long getFrameCount() {
+        return mFrameCount;
+    }
+
+    synchronized long getPatternsPlayed() {
+        return mPatternsPlayed;
+    }
+
+    synchronized boolean isPatternPlaying() {
+        return mPatternPlaying;
+    }
+
+    /**
+     * Copy a retained record into out, which holds at least RECORD_STRIDE ints.
+     *
+     * @param frame index counted from the first frame, getFrameCount() - 1 is the last
+     * @return the System.nanoTime() of the commit
+     * @throws IndexOutOfBoundsException if the frame was never recorded or was overwritten
+     */
+    synchronized long getFrame(long frame, int[] out) {
+        if(frame < 0 || frame >= mFrameCount || frame < mFrameCount - mCapacity) {
+            throw new IndexOutOfBoundsException("frame " + frame + " of " + mFrameCount);
+        }
+        final int slot = (int)(frame % mCapacity);
+        System.arraycopy(mRecords, slot * RECORD_STRIDE, out, 0, RECORD_STRIDE);
+        return mTimes[slot];
+    }
+
+    synchronized void clear() {
+        mFrameCount = 0;
+        mPatternsPlayed = 0;
+        mPatternPlaying = false;
+    }
+}
@@ -10,8 +10,9 @@
 #include <hardware/lights.h>
 
 #include <stdio.h>
+#include <errno.h>
 
-#define DEBUG 1
+#define DEBUG 0
 
 namespace android
 {
@@ -51,45 +52,126 @@ static jint init_native(JNIEnv *env, jobject clazz)
     return (jint)device;
 }
 
-static void setLed_native(JNIEnv *env, jobject clazz, int ptr,
-        int led1, int led2, int led3, int led4, int led5, int led6, int led7, int onMs, int offMs, int option)
-        //int led1, int onMs, int offMs)
+// oem_light_state_t fields in led order, so a frame of any length maps onto the state
+static unsigned int oem_light_state_t::* const kLedFields[] = {
+    &oem_light_state_t::led1,
+    &oem_light_state_t::led2,
+    &oem_light_state_t::led3,
+    &oem_light_state_t::led4,
+    &oem_light_state_t::led5,
+    &oem_light_state_t::led6,
+    &oem_light_state_t::led7,
+};
+
+static void setLedFrame_native(JNIEnv *env, jobject clazz, int ptr,
+        jintArray colors, int offset, int count, int onMs, int offMs, int option)
 {
     Device* device = (Device*)ptr;
     oem_light_state_t state;
 
     if (device->light == NULL) {
-        if(DEBUG) __android_log_print(ANDROID_LOG_ERROR, TAG, "setLed_native: light is null");
+        if(DEBUG) __android_log_print(ANDROID_LOG_ERROR, TAG, "setLedFrame_native: light is null");
         return;
     }
 
+    if (colors == NULL || offset < 0 || count < 0
+            || offset > env->GetArrayLength(colors) - count) {
+        jniThrowException(env, "java/lang/IllegalArgumentException", "bad color range");
+        return;
+    }
+    if (count > (int)NELEM(kLedFields)) {
+        count = NELEM(kLedFields);
+    }
+
     memset(&state, 0, sizeof(oem_light_state_t));
 
-    /* undefined yet */
-    state.led1 = led1;
-    state.led2 = led2;
-    state.led3 = led3;
-    state.led4 = led4;
-    state.led5 = led5;
-    state.led6 = led6;
-    state.led7 = led7;
+    // one critical section for the whole frame, no per-element JNI calls
+    jint* c = (jint*)env->GetPrimitiveArrayCritical(colors, NULL);
+    if (c == NULL) {
+        return;
+    }
+    for (int i = 0; i < count; i++) {
+        state.*kLedFields[i] = c[offset + i];
+    }
+    env->ReleasePrimitiveArrayCritical(colors, c, JNI_ABORT);
+
     state.flashOnMS = onMs;
     state.flashOffMS = offMs;
     state.option = option;
 
-    if(DEBUG) __android_log_print(ANDROID_LOG_ERROR, TAG, "setLed_native: led1 : 0x%08x, led2 : 0x%08x, led3 : 0x%08x, led4 : 0x%08x, led5 : 0x%08x, led6 : 0x%08x, led7 : 0x%08x, onMs: %d, offMs: %d, option: %d", led1, led2, led3, led4, led5, led6, led7, onMs, offMs, option);
+    if(DEBUG) __android_log_print(ANDROID_LOG_ERROR, TAG, "setLedFrame_native: led1 : 0x%08x, led2 : 0x%08x, led3 : 0x%08x, led4 : 0x%08x, led5 : 0x%08x, led6 : 0x%08x, led7 : 0x%08x, onMs: %d, offMs: %d, option: %d", state.led1, state.led2, state.led3, state.led4, state.led5, state.led6, state.led7, onMs, offMs, option);
     device->light->oem_set_light(device->light, &state);
 }
 
 
+// older devices have no pattern entry points, the members past oem_set_light are not there
+static bool hasPatternPlayer(Device* device)
+{
+    return device->light != NULL
+            && device->light->common.version >= OEM_LIGHT_DEVICE_API_VERSION_1
+            && device->light->oem_play_pattern != NULL
+            && device->light->oem_stop_pattern != NULL;
+}
+
+static jboolean hasPatternPlayer_native(JNIEnv *env, jobject clazz, int ptr)
+{
+    return hasPatternPlayer((Device*)ptr);
+}
+
+static jint playPattern_native(JNIEnv *env, jobject clazz, int ptr,
+        jintArray frames, int frameCount, int stride, int repeat, int option)
+{
+    Device* device = (Device*)ptr;
+    oem_light_pattern_t pattern;
+    jint* f;
+    int err;
+
+    if (!hasPatternPlayer(device)) {
+        return -ENOSYS;
+    }
+    if (frames == NULL || frameCount <= 0 || stride <= 1
+            || frameCount > env->GetArrayLength(frames) / stride) {
+        jniThrowException(env, "java/lang/IllegalArgumentException", "bad frame table");
+        return -EINVAL;
+    }
+
+    // the HAL copies the table and may block on its lock, no critical section here
+    f = env->GetIntArrayElements(frames, NULL);
+    if (f == NULL) {
+        return -ENOMEM;
+    }
+    pattern.frames = f;
+    pattern.frame_count = frameCount;
+    pattern.stride = stride;
+    pattern.repeat = repeat;
+    pattern.option = option;
+    if(DEBUG) __android_log_print(ANDROID_LOG_ERROR, TAG, "playPattern_native: frames: %d, stride: %d, repeat: %d, option: %d", frameCount, stride, repeat, option);
+    err = device->light->oem_play_pattern(device->light, &pattern);
+    env->ReleaseIntArrayElements(frames, f, JNI_ABORT);
+    return err;
+}
+
+static void stopPattern_native(JNIEnv *env, jobject clazz, int ptr)
+{
+    Device* device = (Device*)ptr;
+
+    if (!hasPatternPlayer(device)) {
+        return;
+    }
+    device->light->oem_stop_pattern(device->light);
+}
+
 static JNINativeMethod method_table[] = {
     { "init_native", "()I", (void*)init_native },
-    { "setLed_native", "(IIIIIIIIIII)V", (void*)setLed_native },
+    { "setLedFrame_native", "(I[IIIIII)V", (void*)setLedFrame_native },
+    { "hasPatternPlayer_native", "(I)Z", (void*)hasPatternPlayer_native },
+    { "playPattern_native", "(I[IIIII)I", (void*)playPattern_native },
+    { "stopPattern_native", "(I)V", (void*)stopPattern_native },
 };
 
 int register_android_server_LedManagerService(JNIEnv *env)
 {
-    return jniRegisterNativeMethods(env, "com/android/server/LedManagerService",
+    return jniRegisterNativeMethods(env, "com/android/server/NativeLedOutput",
             method_table, NELEM(method_table));
 }
 
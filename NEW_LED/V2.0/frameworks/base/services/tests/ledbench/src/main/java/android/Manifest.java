@@ -0,0 +1,8 @@
+package android;
+
+/** Host stub, only what the led service uses. */
+public final class Manifest {
+    public static final class permission {
+        public static final String DUMP = "android.permission.DUMP";
+    }
+}
@@ -0,0 +1,35 @@
+package android.os;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * Host stub of a local binder. Calls are direct, a local binder never dies, so
+ * linkToDeath does nothing like on a device.
+ */
+public class Binder implements IBinder {
+
+    public static int getCallingPid() {
+        return 0;
+    }
+
+    public static int getCallingUid() {
+        return 0;
+    }
+
+    public void linkToDeath(DeathRecipient recipient, int flags) {
+    }
+
+    public boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+        return true;
+    }
+
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+    }
+
+    /** Host only: runs dump() the way dumpsys does. */
+    public void dumpForHost(PrintWriter pw, String[] args) {
+        dump(FileDescriptor.out, pw, args);
+        pw.flush();
+    }
+}
@@ -0,0 +1,50 @@
+package android.os;
+
+/** Host stub. The thread is a daemon so a host JVM can exit without quitting it. */
+public class HandlerThread extends Thread {
+
+    private Looper mLooper;
+
+    public HandlerThread(String name) {
+        super(name);
+        setDaemon(true);
+    }
+
+    public HandlerThread(String name, int priority) {
+        this(name);
+    }
+
+    @Override
+    public void run() {
+        Looper.prepare();
+        synchronized(this) {
+            mLooper = Looper.myLooper();
+            notifyAll();
+        }
+        Looper.loop();
+    }
+
+    public Looper getLooper() {
+        if(!isAlive()) {
+            return null;
+        }
+        synchronized(this) {
+            while(isAlive() && mLooper == null) {
+                try {
+                    wait();
+                } catch(InterruptedException e) {
+                }
+            }
+        }
+        return mLooper;
+    }
+
+    public boolean quit() {
+        Looper looper = getLooper();
+        if(looper != null) {
+            looper.quit();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+/** Host stub. */
+public interface IBinder {
+
+    interface DeathRecipient {
+        void binderDied();
+    }
+
+    void linkToDeath(DeathRecipient recipient, int flags) throws RemoteException;
+
+    boolean unlinkToDeath(DeathRecipient recipient, int flags);
+}
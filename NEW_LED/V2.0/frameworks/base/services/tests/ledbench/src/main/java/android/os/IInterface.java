@@ -0,0 +1,6 @@
+package android.os;
+
+/** Host stub. */
+public interface IInterface {
+    IBinder asBinder();
+}
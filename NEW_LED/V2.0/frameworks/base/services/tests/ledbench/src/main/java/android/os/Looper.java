@@ -0,0 +1,56 @@
+package android.os;
+
+/**
+ * Host stub. getMainLooper() lazily starts a daemon thread, so a Handler created on a
+ * thread without a looper, like the constructor of a system service, still works.
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+    private static Looper sMainLooper;
+
+    final MessageQueue mQueue = new MessageQueue();
+    final Thread mThread = Thread.currentThread();
+
+    private Looper() {
+    }
+
+    public static void prepare() {
+        if(sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static synchronized Looper getMainLooper() {
+        if(sMainLooper == null) {
+            HandlerThread main = new HandlerThread("main");
+            main.start();
+            sMainLooper = main.getLooper();
+        }
+        return sMainLooper;
+    }
+
+    public static void loop() {
+        final Looper me = myLooper();
+        if(me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        Message msg;
+        while((msg = me.mQueue.next()) != null) {
+            msg.target.dispatchMessage(msg);
+        }
+    }
+
+    public void quit() {
+        mQueue.quit();
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+}
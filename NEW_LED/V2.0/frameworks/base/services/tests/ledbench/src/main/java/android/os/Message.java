@@ -0,0 +1,30 @@
+package android.os;
+
+/** Host stub. Messages are not pooled. */
+public final class Message {
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+
+    Handler target;
+    Runnable callback;
+    long when;
+    long seq;
+
+    public static Message obtain() {
+        return new Message();
+    }
+
+    public Handler getTarget() {
+        return target;
+    }
+
+    public long getWhen() {
+        return when;
+    }
+
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+}
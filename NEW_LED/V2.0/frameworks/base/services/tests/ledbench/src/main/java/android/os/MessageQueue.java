@@ -0,0 +1,80 @@
+package android.os;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Comparator;
+
+/** Host stub, messages ordered by uptime then by enqueue order. */
+public final class MessageQueue {
+
+    private final PriorityQueue<Message> mMessages = new PriorityQueue<Message>(16,
+            new Comparator<Message>() {
+                public int compare(Message a, Message b) {
+                    if(a.when != b.when) {
+                        return a.when < b.when ? -1 : 1;
+                    }
+                    return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+                }
+            });
+    private long mSeq;
+    private boolean mQuitting;
+
+    synchronized boolean enqueueMessage(Message msg, long when) {
+        if(mQuitting) {
+            return false;
+        }
+        msg.when = when;
+        msg.seq = mSeq++;
+        mMessages.add(msg);
+        notifyAll();
+        return true;
+    }
+
+    /** @return the next due message, or null once quit */
+    synchronized Message next() {
+        while(true) {
+            if(mQuitting) {
+                return null;
+            }
+            final Message head = mMessages.peek();
+            final long now = SystemClock.uptimeMillis();
+            if(head != null && head.when <= now) {
+                return mMessages.poll();
+            }
+            try {
+                if(head == null) {
+                    wait();
+                } else {
+                    wait(head.when - now);
+                }
+            } catch(InterruptedException e) {
+                mQuitting = true;
+            }
+        }
+    }
+
+    synchronized void quit() {
+        mQuitting = true;
+        mMessages.clear();
+        notifyAll();
+    }
+
+    synchronized boolean hasMessages(Handler h, int what, Runnable r) {
+        for(Message m : mMessages) {
+            if(m.target == h && (r != null ? m.callback == r : (m.callback == null && m.what == what))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void removeMessages(Handler h, int what, Runnable r) {
+        Iterator<Message> it = mMessages.iterator();
+        while(it.hasNext()) {
+            final Message m = it.next();
+            if(m.target == h && (r != null ? m.callback == r : (m.callback == null && m.what == what))) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package android.os;
+
+/**
+ * Host stub with the wire layout of the real Parcel for the types the led classes use:
+ * little endian, every value padded to 4 bytes, arrays prefixed by their length and
+ * null arrays written as length -1. Sizes measured here match a device.
+ */
+public final class Parcel {
+
+    private byte[] mData = new byte[256];
+    private int mSize;
+    private int mPos;
+
+    private Parcel() {
+    }
+
+    public static Parcel obtain() {
+        return new Parcel();
+    }
+
+    public void recycle() {
+        mSize = 0;
+        mPos = 0;
+    }
+
+    public int dataSize() {
+        return mSize;
+    }
+
+    public int dataAvail() {
+        return mSize > mPos ? mSize - mPos : 0;
+    }
+
+    public int dataPosition() {
+        return mPos;
+    }
+
+    public void setDataPosition(int pos) {
+        mPos = pos;
+    }
+
+    public byte[] marshall() {
+        byte[] out = new byte[mSize];
+        System.arraycopy(mData, 0, out, 0, mSize);
+        return out;
+    }
+
+    public void unmarshall(byte[] data, int offset, int length) {
+        ensure(length);
+        System.arraycopy(data, offset, mData, 0, length);
+        mSize = length;
+        mPos = 0;
+    }
+
+    private void ensure(int capacity) {
+        if(capacity > mData.length) {
+            byte[] data = new byte[Math.max(capacity, mData.length * 2)];
+            System.arraycopy(mData, 0, data, 0, mSize);
+            mData = data;
+        }
+    }
+
+    private void grow(int bytes) {
+        ensure(mPos + bytes);
+        if(mPos + bytes > mSize) {
+            mSize = mPos + bytes;
+        }
+    }
+
+    public void writeInt(int v) {
+        grow(4);
+        final byte[] d = mData;
+        d[mPos] = (byte)v;
+        d[mPos + 1] = (byte)(v >> 8);
+        d[mPos + 2] = (byte)(v >> 16);
+        d[mPos + 3] = (byte)(v >> 24);
+        mPos += 4;
+    }
+
+    public int readInt() {
+        if(mPos + 4 > mSize) {
+            // the real Parcel reads 0 past the end
+            mPos = mSize;
+            return 0;
+        }
+        final byte[] d = mData;
+        final int v = (d[mPos] & 0xFF) | (d[mPos + 1] & 0xFF) << 8
+                | (d[mPos + 2] & 0xFF) << 16 | (d[mPos + 3] & 0xFF) << 24;
+        mPos += 4;
+        return v;
+    }
+
+    public void writeLong(long v) {
+        writeInt((int)v);
+        writeInt((int)(v >>> 32));
+    }
+
+    public long readLong() {
+        final long lo = readInt() & 0xFFFFFFFFL;
+        return lo | ((long)readInt() << 32);
+    }
+
+    public void writeIntArray(int[] val) {
+        if(val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(val.length);
+        for(int v : val) {
+            writeInt(v);
+        }
+    }
+
+    public int[] createIntArray() {
+        final int N = readInt();
+        if(N < 0 || N > (mSize - mPos) / 4) {
+            return null;
+        }
+        int[] val = new int[N];
+        for(int i=0; i<N; i++) {
+            val[i] = readInt();
+        }
+        return val;
+    }
+
+    public void readIntArray(int[] val) {
+        final int N = readInt();
+        if(N != val.length) {
+            throw new RuntimeException("bad array lengths");
+        }
+        for(int i=0; i<N; i++) {
+            val[i] = readInt();
+        }
+    }
+
+    public void writeByteArray(byte[] b) {
+        if(b == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(b.length);
+        final int padded = (b.length + 3) & ~3;
+        grow(padded);
+        System.arraycopy(b, 0, mData, mPos, b.length);
+        for(int i=b.length; i<padded; i++) {
+            mData[mPos + i] = 0;
+        }
+        mPos += padded;
+    }
+
+    public byte[] createByteArray() {
+        final int N = readInt();
+        if(N < 0 || N > mSize - mPos) {
+            return null;
+        }
+        byte[] b = new byte[N];
+        System.arraycopy(mData, mPos, b, 0, N);
+        mPos += (N + 3) & ~3;
+        return b;
+    }
+
+    public <T extends Parcelable> void writeTypedArray(T[] val, int flags) {
+        if(val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(val.length);
+        for(T item : val) {
+            if(item == null) {
+                writeInt(0);
+            } else {
+                writeInt(1);
+                item.writeToParcel(this, flags);
+            }
+        }
+    }
+
+    public <T> T[] createTypedArray(Parcelable.Creator<T> c) {
+        final int N = readInt();
+        if(N < 0) {
+            return null;
+        }
+        T[] val = c.newArray(N);
+        for(int i=0; i<N; i++) {
+            if(readInt() != 0) {
+                val[i] = c.createFromParcel(this);
+            }
+        }
+        return val;
+    }
+}
@@ -0,0 +1,7 @@
+package android.os;
+
+/** Host stub. Thread priorities are ignored. */
+public class Process {
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+    public static final int THREAD_PRIORITY_FOREGROUND = -2;
+}
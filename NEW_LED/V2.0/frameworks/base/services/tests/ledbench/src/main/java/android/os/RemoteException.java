@@ -0,0 +1,11 @@
+package android.os;
+
+/** Host stub. */
+public class RemoteException extends Exception {
+    public RemoteException() {
+    }
+
+    public RemoteException(String message) {
+        super(message);
+    }
+}
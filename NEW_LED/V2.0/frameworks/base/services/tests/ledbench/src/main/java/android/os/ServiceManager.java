@@ -0,0 +1,17 @@
+package android.os;
+
+import java.util.HashMap;
+
+/** Host stub, a plain name to binder map. */
+public final class ServiceManager {
+
+    private static final HashMap<String, IBinder> sServices = new HashMap<String, IBinder>();
+
+    public static synchronized IBinder getService(String name) {
+        return sServices.get(name);
+    }
+
+    public static synchronized void addService(String name, IBinder service) {
+        sServices.put(name, service);
+    }
+}
@@ -0,0 +1,85 @@
+package android.util;
+
+import java.util.Arrays;
+
+/** Host stub, sorted keys and binary search like the real one. */
+public class SparseArray<E> {
+
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    public SparseArray() {
+        this(10);
+    }
+
+    public SparseArray(int initialCapacity) {
+        mKeys = new int[initialCapacity];
+        mValues = new Object[initialCapacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(int key) {
+        final int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return i < 0 ? null : (E)mValues[i];
+    }
+
+    public void put(int key, E value) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if(i >= 0) {
+            mValues[i] = value;
+            return;
+        }
+        i = ~i;
+        if(mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2 + 1);
+            mValues = Arrays.copyOf(mValues, mSize * 2 + 1);
+        }
+        System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+        System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+        mKeys[i] = key;
+        mValues[i] = value;
+        mSize++;
+    }
+
+    public void delete(int key) {
+        final int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if(i >= 0) {
+            removeAt(i);
+        }
+    }
+
+    public void remove(int key) {
+        delete(key);
+    }
+
+    public void removeAt(int index) {
+        System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        System.arraycopy(mValues, index + 1, mValues, index, mSize - index - 1);
+        mSize--;
+        mValues[mSize] = null;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E)mValues[index];
+    }
+
+    public int indexOfKey(int key) {
+        final int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return i < 0 ? -1 : i;
+    }
+
+    public void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        mSize = 0;
+    }
+}
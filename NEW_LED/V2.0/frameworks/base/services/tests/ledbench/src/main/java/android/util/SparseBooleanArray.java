@@ -0,0 +1,68 @@
+package android.util;
+
+import java.util.Arrays;
+
+/** Host stub, sorted keys and binary search like the real one. */
+public class SparseBooleanArray {
+
+    private int[] mKeys = new int[10];
+    private boolean[] mValues = new boolean[10];
+    private int mSize;
+
+    public boolean get(int key) {
+        return get(key, false);
+    }
+
+    public boolean get(int key, boolean valueIfKeyNotFound) {
+        final int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return i < 0 ? valueIfKeyNotFound : mValues[i];
+    }
+
+    public void put(int key, boolean value) {
+        int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if(i >= 0) {
+            mValues[i] = value;
+            return;
+        }
+        i = ~i;
+        if(mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2 + 1);
+            mValues = Arrays.copyOf(mValues, mSize * 2 + 1);
+        }
+        System.arraycopy(mKeys, i, mKeys, i + 1, mSize - i);
+        System.arraycopy(mValues, i, mValues, i + 1, mSize - i);
+        mKeys[i] = key;
+        mValues[i] = value;
+        mSize++;
+    }
+
+    public void delete(int key) {
+        final int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        if(i >= 0) {
+            System.arraycopy(mKeys, i + 1, mKeys, i, mSize - i - 1);
+            System.arraycopy(mValues, i + 1, mValues, i, mSize - i - 1);
+            mSize--;
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    public boolean valueAt(int index) {
+        return mValues[index];
+    }
+
+    public int indexOfKey(int key) {
+        final int i = Arrays.binarySearch(mKeys, 0, mSize, key);
+        return i < 0 ? -1 : i;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+}
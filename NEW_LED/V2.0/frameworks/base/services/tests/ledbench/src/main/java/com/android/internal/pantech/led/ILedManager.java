@@ -0,0 +1,30 @@
+package com.android.internal.pantech.led;
+
+/**
+ * Host stand-in for the aidl output of ILedManager.aidl, keep the methods in sync.
+ * Calls on the host are direct, there is no proxy.
+ */
+public interface ILedManager extends android.os.IInterface {
+
+    public static abstract class Stub extends android.os.Binder implements ILedManager {
+        public static ILedManager asInterface(android.os.IBinder obj) {
+            return obj instanceof ILedManager ? (ILedManager)obj : null;
+        }
+
+        public android.os.IBinder asBinder() {
+            return this;
+        }
+    }
+
+    void postEvent(LedInfo ledInfo, int flag, android.os.IBinder token) throws android.os.RemoteException;
+
+    void removeEvent(LedInfo ledInfo, android.os.IBinder token) throws android.os.RemoteException;
+
+    void postEvents(LedInfo[] ledInfos, int flag, android.os.IBinder token) throws android.os.RemoteException;
+
+    void removeEvents(LedInfo[] ledInfos, android.os.IBinder token) throws android.os.RemoteException;
+
+    void postEventAsync(LedInfo ledInfo, int flag, android.os.IBinder token) throws android.os.RemoteException;
+
+    void removeEventAsync(LedInfo ledInfo, android.os.IBinder token) throws android.os.RemoteException;
+}
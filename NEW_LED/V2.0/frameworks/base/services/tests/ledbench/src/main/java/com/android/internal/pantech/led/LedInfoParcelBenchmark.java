@@ -0,0 +1,94 @@
+package com.android.internal.pantech.led;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import android.os.Parcel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LedInfo parcel encode and decode, v1 against v2 layout.
+ *
+ * The parcel size of one event, the binder payload of a postEvent, is printed at setup
+ * as "wire bytes". Run with -prof gc, gc.alloc.rate.norm of decode is what the service
+ * allocates per received event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class LedInfoParcelBenchmark {
+
+    @Param({"v1", "v2"})
+    public String format;
+
+    @Param({"2", "16", "64"})
+    public int frames;
+
+    // "few" colors fit the palette, "random" colors do not repeat
+    @Param({"few", "random"})
+    public String colors;
+
+    private static final int[] FEW = {
+        LedInfo.BLACK, LedInfo.RED, LedInfo.GREEN, LedInfo.BLUE, LedInfo.WHITE
+    };
+
+    private LedInfo mInfo;
+    private final Parcel mOut = Parcel.obtain();
+    private final Parcel mIn = Parcel.obtain();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(7);
+        int[][] pattern = new int[frames][LedPattern.STRIDE];
+        for(int[] row : pattern) {
+            row[0] = 20 + random.nextInt(480);
+            for(int i=1; i<row.length; i++) {
+                row[i] = "few".equals(colors) ? FEW[random.nextInt(FEW.length)]
+                        : random.nextInt(0x1000000);
+            }
+        }
+        mInfo = new LedInfo(LedManager.APPID_CALL, pattern, 3);
+        write(mInfo, mIn);
+        byte[] data = mIn.marshall();
+        mIn.unmarshall(data, 0, data.length);
+        System.out.println("wire bytes : " + data.length + " (" + format + ", " + frames
+                + " frames, " + colors + " colors)");
+    }
+
+    private void write(LedInfo info, Parcel parcel) {
+        parcel.recycle();
+        if("v1".equals(format)) {
+            info.writeToParcelV1(parcel);
+        } else {
+            info.writeToParcel(parcel, 0);
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        write(mInfo, mOut);
+        return mOut.dataSize();
+    }
+
+    @Benchmark
+    public LedInfo decode() {
+        mIn.setDataPosition(0);
+        return LedInfo.CREATOR.createFromParcel(mIn);
+    }
+}
@@ -0,0 +1,50 @@
+package com.android.server;
+
+import java.util.ArrayList;
+import android.os.IBinder;
+import android.os.RemoteException;
+
+/**
+ * Client token whose process can be made to die, for the host tools.
+ * die() delivers binderDied to every linked recipient on the calling thread, like the
+ * binder thread that reports a death on a device. Linking to a dead token throws.
+ */
+final class FakeBinderToken implements IBinder {
+
+    private final ArrayList<DeathRecipient> mRecipients = new ArrayList<DeathRecipient>();
+    private boolean mDead;
+
+    public synchronized void linkToDeath(DeathRecipient recipient, int flags) throws RemoteException {
+        if(mDead) {
+            throw new RemoteException("token is dead");
+        }
+        mRecipients.add(recipient);
+    }
+
+    public synchronized boolean unlinkToDeath(DeathRecipient recipient, int flags) {
+        return mRecipients.remove(recipient);
+    }
+
+    void die() {
+        DeathRecipient[] recipients;
+        synchronized(this) {
+            if(mDead) {
+                return;
+            }
+            mDead = true;
+            recipients = mRecipients.toArray(new DeathRecipient[mRecipients.size()]);
+            mRecipients.clear();
+        }
+        for(DeathRecipient recipient : recipients) {
+            recipient.binderDied();
+        }
+    }
+
+    synchronized boolean isDead() {
+        return mDead;
+    }
+
+    synchronized int getRecipientCount() {
+        return mRecipients.size();
+    }
+}
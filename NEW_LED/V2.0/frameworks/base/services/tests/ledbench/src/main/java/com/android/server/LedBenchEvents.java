@@ -0,0 +1,70 @@
+package com.android.server;
+
+import java.util.Random;
+import android.content.Context;
+import com.android.internal.pantech.led.LedInfo;
+import com.android.internal.pantech.led.LedManager;
+
+/**
+ * Event sets shared by the benchmarks. Everything is built up front from a fixed seed,
+ * so the measured loop only walks an array.
+ */
+final class LedBenchEvents {
+
+    static final int SET_SIZE = 1024;
+
+    static final String DIST_UNIFORM = "uniform";
+    // 90% of the events on the two highest ids, like a call or a battery warning
+    static final String DIST_SKEWED = "skewed";
+
+    private LedBenchEvents() {
+    }
+
+    static LedManagerService newService(int queueType) {
+        return new LedManagerService(new Context(), queueType, new RecordingLedOutput(1024));
+    }
+
+    static LedInfo periodic(int appId) {
+        int[] color = new int[LedInfo.LED_COUNT];
+        color[appId % LedInfo.LED_COUNT] = LedInfo.GREEN;
+        return new LedInfo(appId, color, 500, 1500);
+    }
+
+    /**
+     * @param frames frames of frameMs each, one led walking around
+     */
+    static LedInfo oneShot(int appId, int frames, int frameMs, int repeat) {
+        int[][] pattern = new int[frames][LedInfo.LED_COUNT + 1];
+        for(int i=0; i<frames; i++) {
+            pattern[i][0] = frameMs;
+            pattern[i][1 + (appId + i) % LedInfo.LED_COUNT] = LedInfo.BLUE;
+        }
+        return new LedInfo(appId, pattern, repeat);
+    }
+
+    /**
+     * @param firstId lowest appId to draw, the highest is LedManager.APPID_TOP - 1
+     * @param oneShotPercent share of one-shot events
+     */
+    static LedInfo[] build(String distribution, int firstId, int oneShotPercent, long seed) {
+        final int top = LedManager.APPID_TOP - 1;
+        if(firstId > top) {
+            throw new IllegalArgumentException("no appId left above " + firstId);
+        }
+        Random random = new Random(seed);
+        LedInfo[] events = new LedInfo[SET_SIZE];
+        for(int i=0; i<SET_SIZE; i++) {
+            int appId;
+            if(DIST_SKEWED.equals(distribution) && top - 1 >= firstId && random.nextInt(10) != 0) {
+                appId = top - random.nextInt(2);
+            } else if(DIST_UNIFORM.equals(distribution) || DIST_SKEWED.equals(distribution)) {
+                appId = firstId + random.nextInt(top - firstId + 1);
+            } else {
+                throw new IllegalArgumentException("unknown distribution : " + distribution);
+            }
+            events[i] = random.nextInt(100) < oneShotPercent
+                    ? oneShot(appId, 4, 50, 2) : periodic(appId);
+        }
+        return events;
+    }
+}
@@ -0,0 +1,42 @@
+package com.android.server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the led benchmarks once per thread count: throughput in ops/s, then sample time
+ * for the percentiles, both with the gc profiler for the allocation rate.
+ *
+ *   java -cp target/benchmarks.jar com.android.server.LedBenchMain [regex] [threads,...]
+ *
+ * regex defaults to every Led benchmark, threads to 1,2,4,8.
+ */
+public final class LedBenchMain {
+
+    public static void main(String[] args) throws RunnerException {
+        final String include = args.length > 0 ? args[0] : "com\\.android\\..*\\.Led.*Benchmark";
+        final String[] threads = (args.length > 1 ? args[1] : "1,2,4,8").split(",");
+        for(String t : threads) {
+            final int count = Integer.parseInt(t.trim());
+            run(include, count, Mode.Throughput, TimeUnit.SECONDS);
+            run(include, count, Mode.SampleTime, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private static void run(String include, int threads, Mode mode, TimeUnit unit)
+            throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .mode(mode)
+                .timeUnit(unit)
+                .addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,128 @@
+package com.android.server;
+
+import java.util.concurrent.TimeUnit;
+import com.android.internal.pantech.led.LedInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LedInfoQueue operations under LedManagerService.mLock, as the service runs them.
+ *
+ * The queue is prefilled with depth periodic events on the lowest appIds. Measured
+ * events use the appIds above, so the depth stays the same from one op to the next.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedInfoQueueBenchmark {
+
+    @Param({"0", "1"})
+    public int queueType;
+
+    @Param({"0", "4", "16"})
+    public int depth;
+
+    @Param({LedBenchEvents.DIST_UNIFORM, LedBenchEvents.DIST_SKEWED})
+    public String distribution;
+
+    @Param({"0", "25"})
+    public int oneShotPercent;
+
+    private LedManagerService mService;
+    private LedInfoQueue mQueue;
+    private LedInfo[] mEvents;
+    private LedInfo[] mReplacements;
+    private int mCursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mService = LedBenchEvents.newService(queueType);
+        mQueue = mService.mLedInfoQueue;
+        mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            for(int appId=1; appId<=depth; appId++) {
+                mQueue.enqueueLedInfoLocked(LedBenchEvents.periodic(appId));
+            }
+        } finally {
+            mService.mLock.unlock();
+        }
+        mEvents = LedBenchEvents.build(distribution, depth + 1, oneShotPercent, 42);
+        // periodic events on the prefilled appIds, or on the lowest one when depth is 0
+        mReplacements = new LedInfo[LedBenchEvents.SET_SIZE];
+        for(int i=0; i<mReplacements.length; i++) {
+            mReplacements[i] = LedBenchEvents.periodic(1 + i % Math.max(depth, 1));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            mService.mLedInfoQueue.dropOneShotEventsLocked();
+        } finally {
+            mService.mLock.unlock();
+        }
+    }
+
+    private LedInfo next(LedInfo[] events) {
+        final LedInfo info = events[mCursor];
+        mCursor = (mCursor + 1) & (LedBenchEvents.SET_SIZE - 1);
+        return info;
+    }
+
+    /** enqueueLedInfoLocked on a new appId, then dequeueLedInfoLocked of it */
+    @Benchmark
+    public int enqueueDequeue() {
+        final LedInfo info = next(mEvents);
+        mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            mQueue.enqueueLedInfoLocked(info);
+            mQueue.dequeueLedInfoLocked(info.getAppId());
+            return mQueue.sizeLocked();
+        } finally {
+            mService.mLock.unlock();
+        }
+    }
+
+    /** enqueueLedInfoLocked replacing a queued event of the same appId */
+    @Benchmark
+    public int enqueueReplace() {
+        final LedInfo info = next(mReplacements);
+        mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            mQueue.enqueueLedInfoLocked(info);
+            return mQueue.sizeLocked();
+        } finally {
+            mService.mLock.unlock();
+        }
+    }
+
+    /** enqueueLedInfoLocked then scheduleLedInfoLocked, the core of postEvent */
+    @Benchmark
+    public int enqueueSchedule() {
+        final LedInfo info = next(mEvents);
+        mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            mQueue.enqueueLedInfoLocked(info);
+            mQueue.scheduleLedInfoLocked();
+            return mQueue.sizeLocked();
+        } finally {
+            mService.mLock.unlock();
+        }
+    }
+}
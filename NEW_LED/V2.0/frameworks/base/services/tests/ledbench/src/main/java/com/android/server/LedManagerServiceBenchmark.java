@@ -0,0 +1,88 @@
+package com.android.server;
+
+import java.util.concurrent.TimeUnit;
+import android.os.Binder;
+import android.os.IBinder;
+import com.android.internal.pantech.led.LedInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The binder entry points postEvent and removeEvent, called directly. One service is
+ * shared by every benchmark thread, each thread posts with its own token, so running
+ * with -t N measures lock contention between N clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LedManagerServiceBenchmark {
+
+    @Param({"0", "1"})
+    public int queueType;
+
+    @Param({"0", "4", "16"})
+    public int depth;
+
+    @Param({LedBenchEvents.DIST_UNIFORM, LedBenchEvents.DIST_SKEWED})
+    public String distribution;
+
+    @Param({"0", "25"})
+    public int oneShotPercent;
+
+    private LedManagerService mService;
+
+    @State(Scope.Thread)
+    public static class Client {
+        IBinder mToken;
+        LedInfo[] mEvents;
+        int mCursor;
+
+        @Setup(Level.Trial)
+        public void setUp(LedManagerServiceBenchmark bench) {
+            mToken = new Binder();
+            mEvents = LedBenchEvents.build(bench.distribution, bench.depth + 1,
+                    bench.oneShotPercent, System.identityHashCode(this));
+        }
+
+        LedInfo next() {
+            final LedInfo info = mEvents[mCursor];
+            mCursor = (mCursor + 1) & (LedBenchEvents.SET_SIZE - 1);
+            return info;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mService = LedBenchEvents.newService(queueType);
+        IBinder token = new Binder();
+        for(int appId=1; appId<=depth; appId++) {
+            mService.postEvent(LedBenchEvents.periodic(appId), 0, token);
+        }
+    }
+
+    @Benchmark
+    public void postEvent(Client client) {
+        mService.postEvent(client.next(), 0, client.mToken);
+    }
+
+    @Benchmark
+    public void postRemoveEvent(Client client) {
+        final LedInfo info = client.next();
+        mService.postEvent(info, 0, client.mToken);
+        mService.removeEvent(info, client.mToken);
+    }
+}
@@ -0,0 +1,240 @@
+package com.android.server;
+
+import java.io.FileInputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import android.content.Context;
+import com.android.internal.pantech.led.LedInfo;
+
+/**
+ * Replays a log written by LedEventRecorder ("dumpsys led record start") into a host
+ * LedManagerService over a RecordingLedOutput.
+ *
+ *   java -cp target/benchmarks.jar com.android.server.LedReplayDriver log [speed] [queueType] [dump]
+ *
+ * speed is 1 for the recorded pace, N to play N times faster, or max to call back to
+ * back. Every client token of the log is a FakeBinderToken, a recorded death kills it.
+ *
+ * Reported: throughput, time spent in each call, how late calls were issued against
+ * the recorded pace, hardware commits, and scheduler invariant violations. After each
+ * call the queue head must not be above the event being played, otherwise an event is
+ * left dark. A one-shot that just ended reschedules through a message on mHandler, so a
+ * violation is only counted when it still holds once mHandler has run its pending
+ * messages. It is attributed to the type of the call that broke it, calls made while it
+ * still holds are counted as dark calls.
+ */
+public final class LedReplayDriver {
+
+    private static final String[] TYPE_NAMES = {
+        "?", "post", "remove", "postAsync", "removeAsync", "posts", "removes", "died"
+    };
+
+    private final LedManagerService mService;
+    private final RecordingLedOutput mOutput;
+    private final HashMap<Integer, FakeBinderToken> mTokens = new HashMap<Integer, FakeBinderToken>();
+
+    private LedReplayDriver(int queueType) {
+        mOutput = new RecordingLedOutput(1 << 12);
+        mService = new LedManagerService(new Context(), queueType, mOutput);
+    }
+
+    static final class Record {
+        final int mType;
+        final long mTime;
+        final int mToken;
+        final LedInfo[] mEvents;
+
+        Record(LedEventRecorder.Reader reader) {
+            mType = reader.mType;
+            mTime = reader.mTime;
+            mToken = reader.mToken;
+            mEvents = reader.mEvents;
+        }
+    }
+
+    private FakeBinderToken token(int id) {
+        FakeBinderToken token = mTokens.get(id);
+        if(token == null) {
+            token = new FakeBinderToken();
+            mTokens.put(id, token);
+        }
+        return token;
+    }
+
+    private void call(Record r) {
+        switch(r.mType) {
+            case LedEventRecorder.TYPE_POST:
+                mService.postEvent(r.mEvents[0], 0, token(r.mToken));
+                break;
+            case LedEventRecorder.TYPE_REMOVE:
+                mService.removeEvent(r.mEvents[0], token(r.mToken));
+                break;
+            case LedEventRecorder.TYPE_POST_ASYNC:
+                mService.postEventAsync(r.mEvents[0], 0, token(r.mToken));
+                break;
+            case LedEventRecorder.TYPE_REMOVE_ASYNC:
+                mService.removeEventAsync(r.mEvents[0], token(r.mToken));
+                break;
+            case LedEventRecorder.TYPE_POSTS:
+                mService.postEvents(r.mEvents, 0, token(r.mToken));
+                break;
+            case LedEventRecorder.TYPE_REMOVES:
+                mService.removeEvents(r.mEvents, token(r.mToken));
+                break;
+            case LedEventRecorder.TYPE_DIED:
+                final FakeBinderToken token = mTokens.remove(r.mToken);
+                if(token != null) {
+                    token.die();
+                }
+                break;
+        }
+    }
+
+    /** @return true if the queue head outranks the event being played */
+    private boolean isViolated() {
+        mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            final LedInfo head = mService.mLedInfoQueue.peekHeadLocked();
+            final LedInfo current = mService.mCurrentLedInfo;
+            return head != null && (current == null || head.getAppId() > current.getAppId());
+        } finally {
+            mService.mLock.unlock();
+        }
+    }
+
+    /** Wait for the messages already posted to mHandler */
+    private void settle() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mService.mHandler.post(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    private static String state(LedManagerService service) {
+        StringBuilder sb = new StringBuilder();
+        service.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            final LedInfo current = service.mCurrentLedInfo;
+            sb.append("current ").append(current != null ? current.getAppId() : -1)
+                    .append(", queue [");
+            final LedInfo[] queued = service.mLedInfoQueue.toSortedArrayLocked();
+            for(int i=0; i<queued.length; i++) {
+                sb.append(i == 0 ? "" : " ").append(queued[i].getAppId());
+            }
+            sb.append(']');
+        } finally {
+            service.mLock.unlock();
+        }
+        return sb.toString();
+    }
+
+    private static void pace(long target) throws InterruptedException {
+        long wait;
+        while((wait = target - System.nanoTime()) > 0) {
+            if(wait > 2000000) {
+                Thread.sleep((wait - 1000000) / 1000000);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1) {
+            System.err.println("usage : LedReplayDriver log [1|N|max] [queueType] [dump]");
+            System.exit(2);
+        }
+        final double speed = args.length > 1 && !"max".equals(args[1]) ? Double.parseDouble(args[1]) : 0;
+        final int queueType = args.length > 2 ? Integer.parseInt(args[2]) : LedInfoQueue.TYPE_HEAP;
+        final boolean dump = args.length > 3 && "dump".equals(args[3]);
+
+        // decode everything first, the replay loop only calls the service
+        ArrayList<Record> records = new ArrayList<Record>();
+        LedEventRecorder.Reader reader = new LedEventRecorder.Reader(new FileInputStream(args[0]));
+        try {
+            while(reader.next()) {
+                records.add(new Record(reader));
+            }
+        } finally {
+            reader.close();
+        }
+        if(records.isEmpty()) {
+            System.out.println("empty log");
+            return;
+        }
+
+        LedReplayDriver driver = new LedReplayDriver(queueType);
+        final int N = records.size();
+        final double[] callUs = new double[N];
+        final double[] lateMs = new double[N];
+        final int[] counts = new int[TYPE_NAMES.length];
+        final int[] violations = new int[TYPE_NAMES.length];
+        int dark = 0;
+        boolean violated = false;
+
+        final long start = System.nanoTime();
+        for(int i=0; i<N; i++) {
+            final Record r = records.get(i);
+            if(speed > 0) {
+                final long target = start + (long)(r.mTime / speed);
+                pace(target);
+                lateMs[i] = (System.nanoTime() - target) / 1e6;
+            }
+            final long before = System.nanoTime();
+            driver.call(r);
+            callUs[i] = (System.nanoTime() - before) / 1e3;
+            counts[r.mType]++;
+            boolean now = driver.isViolated();
+            if(now) {
+                driver.settle();
+                now = driver.isViolated();
+            }
+            if(now && !violated) {
+                violations[r.mType]++;
+            } else if(now) {
+                dark++;
+            }
+            violated = now;
+        }
+        final long wall = System.nanoTime() - start;
+        // let oneway requests and scheduled messages drain
+        Thread.sleep(200);
+
+        final double recordedMs = records.get(N - 1).mTime / 1e6;
+        PrintWriter pw = new PrintWriter(System.out, true);
+        pw.println("log : " + args[0] + ", records " + N + ", recorded " + String.format(Locale.US, "%.1f", recordedMs)
+                + "ms, speed " + (speed > 0 ? speed + "x" : "max") + ", queue type " + queueType);
+        StringBuilder sb = new StringBuilder("calls :");
+        StringBuilder sv = new StringBuilder("violations :");
+        for(int t=1; t<TYPE_NAMES.length; t++) {
+            sb.append(' ').append(TYPE_NAMES[t]).append(' ').append(counts[t]);
+            sv.append(' ').append(TYPE_NAMES[t]).append(' ').append(violations[t]);
+        }
+        pw.println(sb.toString());
+        pw.println(String.format(Locale.US, "wall %.1fms, %.0f calls/s", wall / 1e6, N / (wall / 1e9)));
+        pw.println(String.format(Locale.US, "call us p50 %.1f p99 %.1f max %.1f",
+                LedTimingHarness.percentile(callUs, 50), LedTimingHarness.percentile(callUs, 99),
+                LedTimingHarness.percentile(callUs, 100)));
+        if(speed > 0) {
+            pw.println(String.format(Locale.US, "late ms p50 %.3f p99 %.3f max %.3f",
+                    LedTimingHarness.percentile(lateMs, 50), LedTimingHarness.percentile(lateMs, 99),
+                    LedTimingHarness.percentile(lateMs, 100)));
+        }
+        pw.println("commits : " + driver.mOutput.getFrameCount());
+        sv.append(", dark calls ").append(dark);
+        pw.println(sv.toString());
+        pw.println("end state : " + state(driver.mService));
+        if(dump) {
+            pw.println();
+            driver.mService.dumpForHost(pw, new String[0]);
+        }
+        pw.flush();
+        System.exit(0);
+    }
+}
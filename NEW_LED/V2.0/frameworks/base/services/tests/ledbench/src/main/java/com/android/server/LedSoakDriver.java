@@ -0,0 +1,321 @@
+package com.android.server;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import android.content.Context;
+import android.os.IBinder;
+import com.android.internal.pantech.led.LedInfo;
+import com.android.internal.pantech.led.LedManager;
+
+/**
+ * Long running load on a host LedManagerService with many clients, each with its own
+ * FakeBinderToken, to check death handler bookkeeping and the queue at scale.
+ *
+ *   java -cp target/benchmarks.jar com.android.server.LedSoakDriver [key=value ...] 2>/dev/null
+ *
+ *   clients=2000   simulated clients, split between the worker threads
+ *   threads=4      worker threads, each one calling like a binder thread
+ *   seconds=60     duration
+ *   die=0.2        share of clients that die instead of removing their events
+ *   life=50        mean number of calls of a client before it dies or leaves
+ *   interval=10    seconds between samples
+ *   report=path    also write the samples as CSV
+ *
+ * A client posts, replaces (posts again with other colors) and removes events on random
+ * appIds. At the end of its life it either removes everything it posted or dies, and a
+ * new client with a new token takes its place. Workers are paused while a sample is
+ * taken, so every sample sees a quiet service:
+ *   heap        used heap after a gc
+ *   queue       queued events
+ *   tokens      tokens with a death handler
+ *   dead        of those, tokens that are dead: leaked handlers
+ *   orphan      live tokens still linked while the service has no handler for them
+ *   stale       appIds with a death handler that are neither queued nor playing
+ */
+public final class LedSoakDriver {
+
+    private final LedManagerService mService;
+    private final Client[][] mClients;
+    private final int mLife;
+    private final double mDie;
+    // workers hold it shared for every call, the sampler exclusively
+    private final ReentrantReadWriteLock mPause = new ReentrantReadWriteLock();
+    private volatile boolean mStop;
+
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mDeaths = new AtomicLong();
+    private final AtomicLong mLeaves = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+
+    /** One client process, only used by the worker that owns it */
+    static final class Client {
+        FakeBinderToken mToken;
+        // appIds this client has posted and not removed
+        int mPosted;
+        int mCallsLeft;
+        boolean mWillDie;
+    }
+
+    private LedSoakDriver(int clients, int threads, int life, double die) {
+        mService = new LedManagerService(new Context(), LedInfoQueue.TYPE_HEAP, new RecordingLedOutput(1024));
+        mLife = life;
+        mDie = die;
+        mClients = new Client[threads][];
+        Random random = new Random(1);
+        for(int t=0; t<threads; t++) {
+            final int n = clients / threads + (t < clients % threads ? 1 : 0);
+            mClients[t] = new Client[n];
+            for(int i=0; i<n; i++) {
+                mClients[t][i] = new Client();
+                spawn(mClients[t][i], random);
+            }
+        }
+    }
+
+    private void spawn(Client c, Random random) {
+        c.mToken = new FakeBinderToken();
+        c.mPosted = 0;
+        c.mCallsLeft = 1 + random.nextInt(2 * mLife);
+        c.mWillDie = random.nextDouble() < mDie;
+    }
+
+    private static LedInfo event(Random random, int appId) {
+        if(random.nextInt(10) == 0) {
+            // short, so one-shot events end and hand the leds back
+            return LedBenchEvents.oneShot(appId, 2, 5 + random.nextInt(20), 1);
+        }
+        int[] color = new int[LedInfo.LED_COUNT];
+        color[random.nextInt(LedInfo.LED_COUNT)] = random.nextInt(0x1000000);
+        return new LedInfo(appId, color, 100 + random.nextInt(900), random.nextInt(3000));
+    }
+
+    private void step(Client c, Random random) {
+        final int top = LedManager.APPID_TOP - 1;
+        final int action = random.nextInt(10);
+        if(action < 4) {
+            final int appId = 1 + random.nextInt(top);
+            mService.postEvent(event(random, appId), 0, c.mToken);
+            c.mPosted |= 1 << appId;
+        } else if(action < 6 && c.mPosted != 0) {
+            // replace one of ours
+            final int appId = pick(c.mPosted, random);
+            mService.postEvent(event(random, appId), 0, c.mToken);
+        } else if(c.mPosted != 0) {
+            final int appId = pick(c.mPosted, random);
+            mService.removeEvent(LedBenchEvents.periodic(appId), c.mToken);
+            c.mPosted &= ~(1 << appId);
+        }
+        if(--c.mCallsLeft > 0) {
+            return;
+        }
+        if(c.mWillDie) {
+            c.mToken.die();
+            mDeaths.incrementAndGet();
+        } else {
+            for(int appId=1; appId<=top; appId++) {
+                if((c.mPosted & (1 << appId)) != 0) {
+                    mService.removeEvent(LedBenchEvents.periodic(appId), c.mToken);
+                }
+            }
+            mLeaves.incrementAndGet();
+        }
+        spawn(c, random);
+    }
+
+    private static int pick(int mask, Random random) {
+        int n = random.nextInt(Integer.bitCount(mask));
+        for(int appId=0; ; appId++) {
+            if((mask & (1 << appId)) != 0 && n-- == 0) {
+                return appId;
+            }
+        }
+    }
+
+    private Thread worker(final int index) {
+        return new Thread("soak-" + index) {
+            @Override
+            public void run() {
+                final Random random = new Random(100 + index);
+                final Client[] clients = mClients[index];
+                while(!mStop) {
+                    final Client c = clients[random.nextInt(clients.length)];
+                    mPause.readLock().lock();
+                    try {
+                        step(c, random);
+                        mCalls.incrementAndGet();
+                    } catch(RuntimeException e) {
+                        if(mErrors.getAndIncrement() == 0) {
+                            e.printStackTrace(System.out);
+                        }
+                    } finally {
+                        mPause.readLock().unlock();
+                    }
+                }
+            }
+        };
+    }
+
+    static final class Sample {
+        long mTimeMs;
+        long mCalls;
+        long mHeap;
+        int mQueue;
+        int mTokens;
+        int mDead;
+        int mOrphan;
+        int mStale;
+        long mDeaths;
+        long mErrors;
+    }
+
+    private Sample sample(long start) {
+        Sample s = new Sample();
+        mPause.writeLock().lock();
+        try {
+            s.mTimeMs = (System.nanoTime() - start) / 1000000;
+            s.mCalls = mCalls.get();
+            s.mDeaths = mDeaths.get();
+            s.mErrors = mErrors.get();
+
+            HashSet<IBinder> handled = new HashSet<IBinder>();
+            mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+            try {
+                s.mQueue = mService.mLedInfoQueue.sizeLocked();
+                for(IBinder token : mService.getDeathTokensLocked()) {
+                    handled.add(token);
+                    if(((FakeBinderToken)token).isDead()) {
+                        s.mDead++;
+                    }
+                }
+                s.mTokens = handled.size();
+                boolean[] live = new boolean[LedManager.APPID_TOP];
+                for(LedInfo info : mService.mLedInfoQueue.toSortedArrayLocked()) {
+                    live[info.getAppId()] = true;
+                }
+                if(mService.mCurrentLedInfo != null) {
+                    live[mService.mCurrentLedInfo.getAppId()] = true;
+                }
+                for(int appId : mService.getDeathAppIdsLocked()) {
+                    if(appId >= 0 && appId < live.length && !live[appId]) {
+                        s.mStale++;
+                    }
+                }
+            } finally {
+                mService.mLock.unlock();
+            }
+            for(Client[] clients : mClients) {
+                for(Client c : clients) {
+                    if(c.mToken.getRecipientCount() > 0 && !handled.contains(c.mToken)) {
+                        s.mOrphan++;
+                    }
+                }
+            }
+            System.gc();
+            final Runtime runtime = Runtime.getRuntime();
+            s.mHeap = runtime.totalMemory() - runtime.freeMemory();
+        } finally {
+            mPause.writeLock().unlock();
+        }
+        return s;
+    }
+
+    private static final String HEADER = "time_s,calls,calls_per_s,heap_kb,queue,tokens,dead,orphan,stale,deaths,errors";
+
+    private static String format(Sample s, Sample previous) {
+        final double seconds = (s.mTimeMs - previous.mTimeMs) / 1000.0;
+        return String.format(Locale.US, "%.1f,%d,%.0f,%d,%d,%d,%d,%d,%d,%d,%d",
+                s.mTimeMs / 1000.0, s.mCalls,
+                seconds > 0 ? (s.mCalls - previous.mCalls) / seconds : 0.0,
+                s.mHeap / 1024, s.mQueue, s.mTokens, s.mDead, s.mOrphan, s.mStale,
+                s.mDeaths, s.mErrors);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = 2000;
+        int threads = 4;
+        long seconds = 60;
+        double die = 0.2;
+        int life = 50;
+        int interval = 10;
+        String report = null;
+        for(String arg : args) {
+            final int eq = arg.indexOf('=');
+            final String key = eq < 0 ? arg : arg.substring(0, eq);
+            final String value = eq < 0 ? "" : arg.substring(eq + 1);
+            if("clients".equals(key)) {
+                clients = Integer.parseInt(value);
+            } else if("threads".equals(key)) {
+                threads = Integer.parseInt(value);
+            } else if("seconds".equals(key)) {
+                seconds = Long.parseLong(value);
+            } else if("die".equals(key)) {
+                die = Double.parseDouble(value);
+            } else if("life".equals(key)) {
+                life = Integer.parseInt(value);
+            } else if("interval".equals(key)) {
+                interval = Integer.parseInt(value);
+            } else if("report".equals(key)) {
+                report = value;
+            } else {
+                System.err.println("unknown argument : " + arg);
+                System.exit(2);
+            }
+        }
+        if(clients < threads || threads < 1) {
+            System.err.println("need at least one client per thread");
+            System.exit(2);
+        }
+
+        LedSoakDriver driver = new LedSoakDriver(clients, threads, life, die);
+        PrintWriter csv = report != null ? new PrintWriter(new FileWriter(report)) : null;
+        System.out.println(String.format(Locale.US, "clients %d, threads %d, %ds, die %.2f, life %d",
+                clients, threads, seconds, die, life));
+        System.out.println(HEADER);
+        if(csv != null) {
+            csv.println(HEADER);
+        }
+
+        final long start = System.nanoTime();
+        final Sample first = driver.sample(start);
+        Thread[] workers = new Thread[threads];
+        for(int t=0; t<threads; t++) {
+            workers[t] = driver.worker(t);
+            workers[t].start();
+        }
+
+        Sample previous = first;
+        Sample last = first;
+        final long end = start + seconds * 1000000000L;
+        while(System.nanoTime() < end) {
+            Thread.sleep(Math.min(interval * 1000L, Math.max(1, (end - System.nanoTime()) / 1000000)));
+            last = driver.sample(start);
+            final String line = format(last, previous);
+            System.out.println(line);
+            if(csv != null) {
+                csv.println(line);
+                csv.flush();
+            }
+            previous = last;
+        }
+        driver.mStop = true;
+        for(Thread worker : workers) {
+            worker.join();
+        }
+        if(csv != null) {
+            csv.close();
+        }
+
+        System.out.println(String.format(Locale.US,
+                "total %d calls, %.0f calls/s, %d deaths, %d leaves, heap growth %dkb, errors %d",
+                last.mCalls, last.mCalls / (last.mTimeMs / 1000.0), driver.mDeaths.get(),
+                driver.mLeaves.get(), (last.mHeap - first.mHeap) / 1024, driver.mErrors.get()));
+        final boolean clean = last.mDead == 0 && last.mOrphan == 0 && last.mStale == 0 && last.mErrors == 0;
+        System.out.println(clean ? "death handlers : clean" : "death handlers : LEAKED, see dead/orphan/stale");
+        System.exit(clean ? 0 : 1);
+    }
+}
@@ -0,0 +1,308 @@
+package com.android.server;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import android.os.Binder;
+import android.os.IBinder;
+import com.android.internal.pantech.led.LedInfo;
+import com.android.internal.pantech.led.LedManager;
+
+/**
+ * Measures how closely OneShotEvent follows the durations of a pattern.
+ *
+ * A one-shot pattern is posted to a LedManagerService whose output is a
+ * RecordingLedOutput, which stamps every commit with System.nanoTime(). Led 1 of each
+ * frame carries a marker with the frame index, so every commit maps back to the frame it
+ * shows. Times are measured from the start time OneShotEvent schedules the frames from,
+ * read back from the service. The SystemClock stub runs on System.nanoTime(), so it is
+ * on the clock of the commit stamps:
+ *   post    time spent in postEvent, mostly waiting for mLock
+ *   start   first commit - start time
+ *   error   commit time - scheduled time of the frame
+ *   jitter  |interval to the next commit - duration of the frame|
+ *   drift   error of the last frame
+ * Scenarios run idle, under binder threads posting to the service, and under a thread
+ * holding mLock. Results go to a report file with one fixed format line per scenario,
+ * then the per-frame errors, so two runs can be diffed.
+ *
+ *   java -cp target/benchmarks.jar com.android.server.LedTimingHarness [report] [runs]
+ */
+public final class LedTimingHarness {
+
+    // ms, uneven on purpose, repeated REPEAT times
+    private static final int[] DURATIONS = { 16, 33, 50, 100, 20, 250, 40, 16 };
+    private static final int REPEAT = 5;
+    private static final int MARKER = 0x00A00000;
+
+    private static final int BINDER_THREADS = 4;
+    private static final int LOCK_HOLD_MS = 2;
+    private static final int LOCK_PERIOD_MS = 5;
+
+    // binder load commits periodic events whenever the one-shot is not playing
+    private static final int RECORD_CAPACITY = 1 << 18;
+    // wait for the end of event commit after the pattern
+    private static final int TAIL_MS = 100;
+
+    private final LedManagerService mService;
+    private final RecordingLedOutput mOutput;
+    private final LedInfo mPattern;
+    private final long[] mScheduled;
+    // tells the load threads of the current run to stop
+    private volatile boolean mStopLoad;
+
+    private LedTimingHarness() {
+        mOutput = new RecordingLedOutput(RECORD_CAPACITY);
+        mService = new LedManagerService(new android.content.Context(), LedInfoQueue.TYPE_HEAP, mOutput);
+
+        int[][] pattern = new int[DURATIONS.length][LedInfo.LED_COUNT + 1];
+        for(int i=0; i<DURATIONS.length; i++) {
+            pattern[i][0] = DURATIONS[i];
+            pattern[i][1] = MARKER | i;
+            // consecutive frames always differ, the commit shadow never drops one
+        }
+        mPattern = new LedInfo(LedManager.APPID_CALL, pattern, REPEAT);
+
+        final int total = DURATIONS.length * REPEAT;
+        mScheduled = new long[total];
+        long t = 0;
+        for(int k=0; k<total; k++) {
+            mScheduled[k] = t;
+            t += DURATIONS[k % DURATIONS.length];
+        }
+    }
+
+    static final class Result {
+        final String mScenario;
+        final int mRun;
+        int mFrames;
+        int mSkipped;
+        double mPostMs;
+        double mStartLatencyMs;
+        double[] mErrorMs;
+        double[] mJitterMs;
+        double mDriftMs;
+
+        Result(String scenario, int run) {
+            mScenario = scenario;
+            mRun = run;
+        }
+    }
+
+    private Result playOnce(String scenario, int run, ArrayList<Thread> load)
+            throws InterruptedException {
+        final long base = mOutput.getFrameCount();
+        final IBinder token = new Binder();
+        final long posted = System.nanoTime();
+        mService.postEvent(mPattern, 0, token);
+        final long returned = System.nanoTime();
+        final long origin;
+        mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            origin = mService.getOneShotStartTimeLocked() * 1000000L;
+        } finally {
+            mService.mLock.unlock();
+        }
+        final long totalMs = mScheduled[mScheduled.length - 1] + DURATIONS[DURATIONS.length - 1];
+        Thread.sleep(totalMs);
+        // once the pattern ends the load commits its own periodic events, stop it
+        mStopLoad = true;
+        for(Thread t : load) {
+            t.join();
+        }
+        Thread.sleep(TAIL_MS);
+
+        final long end = mOutput.getFrameCount();
+        if(end - base > RECORD_CAPACITY) {
+            throw new IllegalStateException(scenario + " : " + (end - base)
+                    + " commits overflow the record ring");
+        }
+        final int[] record = new int[RecordingLedOutput.RECORD_STRIDE];
+        final int N = DURATIONS.length;
+        ArrayList<long[]> commits = new ArrayList<long[]>();
+        long previous = -1;
+        for(long f=base; f<end; f++) {
+            final long time = mOutput.getFrame(f, record);
+            if((record[0] & ~0xFF) != MARKER) {
+                continue;
+            }
+            final int index = record[0] & 0xFF;
+            long k = previous + 1;
+            while(k % N != index) {
+                k++;
+            }
+            if(k >= mScheduled.length) {
+                break;
+            }
+            commits.add(new long[] { k, time });
+            previous = k;
+        }
+
+        Result r = new Result(scenario, run);
+        r.mFrames = commits.size();
+        r.mPostMs = (returned - posted) / 1e6;
+        r.mSkipped = mScheduled.length - commits.size();
+        if(commits.isEmpty()) {
+            r.mErrorMs = new double[0];
+            r.mJitterMs = new double[0];
+            return r;
+        }
+        r.mStartLatencyMs = (commits.get(0)[1] - origin) / 1e6;
+        r.mErrorMs = new double[commits.size()];
+        r.mJitterMs = new double[Math.max(commits.size() - 1, 0)];
+        for(int i=0; i<commits.size(); i++) {
+            final long[] c = commits.get(i);
+            r.mErrorMs[i] = (c[1] - origin) / 1e6 - mScheduled[(int)c[0]];
+            if(i > 0) {
+                final long[] p = commits.get(i - 1);
+                final double interval = (c[1] - p[1]) / 1e6;
+                final double expected = mScheduled[(int)c[0]] - mScheduled[(int)p[0]];
+                r.mJitterMs[i - 1] = Math.abs(interval - expected);
+            }
+        }
+        r.mDriftMs = r.mErrorMs[r.mErrorMs.length - 1];
+        return r;
+    }
+
+    /** Binder clients posting and removing lower priority periodic events */
+    private Thread[] startBinderLoad() {
+        Thread[] threads = new Thread[BINDER_THREADS];
+        for(int t=0; t<threads.length; t++) {
+            final int appId = 1 + t;
+            threads[t] = new Thread("binder-" + t) {
+                @Override
+                public void run() {
+                    final IBinder token = new Binder();
+                    final LedInfo info = LedBenchEvents.periodic(appId);
+                    while(!mStopLoad) {
+                        mService.postEvent(info, 0, token);
+                        mService.removeEvent(info, token);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        return threads;
+    }
+
+    /** Holds mLock for LOCK_HOLD_MS every LOCK_PERIOD_MS */
+    private Thread startLockHolder() {
+        Thread holder = new Thread("lock-holder") {
+            @Override
+            public void run() {
+                while(!mStopLoad) {
+                    mService.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+                    try {
+                        final long until = System.nanoTime() + LOCK_HOLD_MS * 1000000L;
+                        while(System.nanoTime() < until) {
+                            // spin, a binder call doing work under the lock
+                        }
+                    } finally {
+                        mService.mLock.unlock();
+                    }
+                    try {
+                        Thread.sleep(LOCK_PERIOD_MS - LOCK_HOLD_MS);
+                    } catch(InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        holder.start();
+        return holder;
+    }
+
+    private Result run(String scenario, int run) throws InterruptedException {
+        mStopLoad = false;
+        ArrayList<Thread> load = new ArrayList<Thread>();
+        if("binder".equals(scenario)) {
+            load.addAll(Arrays.asList(startBinderLoad()));
+        } else if("lock".equals(scenario)) {
+            load.add(startLockHolder());
+        }
+        try {
+            return playOnce(scenario, run, load);
+        } finally {
+            mStopLoad = true;
+            for(Thread t : load) {
+                t.join();
+            }
+        }
+    }
+
+    static double percentile(double[] values, double p) {
+        if(values.length == 0) {
+            return 0;
+        }
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        final int index = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double[] abs(double[] values) {
+        double[] out = new double[values.length];
+        for(int i=0; i<values.length; i++) {
+            out[i] = Math.abs(values[i]);
+        }
+        return out;
+    }
+
+    private static void report(PrintWriter pw, ArrayList<Result> results) {
+        pw.println("# led one-shot timing, pattern " + Arrays.toString(DURATIONS) + " ms x " + REPEAT);
+        pw.println("# binder load " + BINDER_THREADS + " threads, lock load "
+                + LOCK_HOLD_MS + "ms every " + LOCK_PERIOD_MS + "ms");
+        pw.println("# scenario run frames skipped post_ms start_ms |err|p50 |err|p99 |err|max jit_p50 jit_p99 jit_max drift_ms");
+        for(Result r : results) {
+            final double[] err = abs(r.mErrorMs);
+            pw.println(String.format(Locale.US,
+                    "%-8s %3d %6d %7d %7.3f %8.3f %8.3f %8.3f %8.3f %7.3f %7.3f %7.3f %8.3f",
+                    r.mScenario, r.mRun, r.mFrames, r.mSkipped, r.mPostMs, r.mStartLatencyMs,
+                    percentile(err, 50), percentile(err, 99), percentile(err, 100),
+                    percentile(r.mJitterMs, 50), percentile(r.mJitterMs, 99),
+                    percentile(r.mJitterMs, 100), r.mDriftMs));
+        }
+        pw.println();
+        pw.println("# per-frame error ms, one line per scenario run");
+        for(Result r : results) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(r.mScenario).append(' ').append(r.mRun).append(':');
+            for(double e : r.mErrorMs) {
+                sb.append(String.format(Locale.US, " %.3f", e));
+            }
+            pw.println(sb.toString());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String path = args.length > 0 ? args[0] : "ledtiming-report.txt";
+        final int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        LedTimingHarness harness = new LedTimingHarness();
+        // warm up the scheduling path before measuring
+        harness.run("warmup", 0);
+
+        ArrayList<Result> results = new ArrayList<Result>();
+        for(String scenario : new String[] { "idle", "binder", "lock" }) {
+            for(int run=0; run<runs; run++) {
+                results.add(harness.run(scenario, run));
+            }
+        }
+
+        PrintWriter out = new PrintWriter(new PrintWriter(System.out, true));
+        report(out, results);
+        out.flush();
+        try {
+            PrintWriter file = new PrintWriter(new FileWriter(path));
+            report(file, results);
+            file.close();
+        } catch(IOException e) {
+            System.err.println("cannot write " + path + " : " + e);
+            System.exit(1);
+        }
+        System.out.println("report : " + path);
+    }
+}
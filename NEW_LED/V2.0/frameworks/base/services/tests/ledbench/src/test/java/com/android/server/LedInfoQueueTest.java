@@ -0,0 +1,93 @@
+package com.android.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Parcel;
+import com.android.internal.pantech.led.LedInfo;
+import com.android.internal.pantech.led.LedManager;
+
+import org.junit.Test;
+
+/**
+ * Range check of LedInfoQueue, on both queue types.
+ */
+public class LedInfoQueueTest {
+
+    private static final int[] QUEUE_TYPES = { LedInfoQueue.TYPE_HEAP, LedInfoQueue.TYPE_BITMAP };
+
+    /**
+     * LedInfo constructors reject LedManager.APPID_MIN, a client can still send it in a
+     * Parcel. Written in the v1 layout, the header is the periodicity.
+     */
+    private static LedInfo periodicFromParcel(int appId) {
+        Parcel parcel = Parcel.obtain();
+        parcel.writeInt(1);
+        parcel.writeInt(appId);
+        parcel.writeInt(0);
+        int[] color = new int[LedInfo.LED_COUNT];
+        color[0] = LedInfo.RED;
+        parcel.writeIntArray(color);
+        parcel.writeInt(500);
+        parcel.writeInt(1500);
+        parcel.setDataPosition(0);
+        return new LedInfo(parcel);
+    }
+
+    private static boolean isPosted(LedManagerService service, int appId) {
+        service.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            if(service.mCurrentLedInfo != null && service.mCurrentLedInfo.getAppId() == appId) {
+                return true;
+            }
+            for(LedInfo info : service.mLedInfoQueue.toSortedArrayLocked()) {
+                if(info.getAppId() == appId) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            service.mLock.unlock();
+        }
+    }
+
+    @Test
+    public void postAndRemoveMinAppId() {
+        final int appId = LedManager.APPID_MIN;
+        for(int type : QUEUE_TYPES) {
+            LedManagerService service = LedBenchEvents.newService(type);
+            LedInfo info = periodicFromParcel(appId);
+            FakeBinderToken token = new FakeBinderToken();
+
+            service.postEvent(info, 0, token);
+            assertTrue("type " + type, isPosted(service, appId));
+            assertEquals("type " + type, appId, service.mCurrentLedInfo.getAppId());
+
+            service.removeEvent(info, token);
+            assertFalse("type " + type, isPosted(service, appId));
+            assertNull("type " + type, service.mCurrentLedInfo);
+        }
+    }
+
+    @Test
+    public void removeMinAppIdUnderHigherEvent() {
+        final int appId = LedManager.APPID_MIN;
+        for(int type : QUEUE_TYPES) {
+            LedManagerService service = LedBenchEvents.newService(type);
+            LedInfo info = periodicFromParcel(appId);
+            LedInfo higher = LedBenchEvents.periodic(appId + 1);
+            FakeBinderToken token = new FakeBinderToken();
+
+            service.postEvent(info, 0, token);
+            service.postEvent(higher, 0, new FakeBinderToken());
+            assertEquals("type " + type, appId + 1, service.mCurrentLedInfo.getAppId());
+            assertTrue("type " + type, isPosted(service, appId));
+
+            service.removeEvent(info, token);
+            assertFalse("type " + type, isPosted(service, appId));
+            assertEquals("type " + type, appId + 1, service.mCurrentLedInfo.getAppId());
+        }
+    }
+}
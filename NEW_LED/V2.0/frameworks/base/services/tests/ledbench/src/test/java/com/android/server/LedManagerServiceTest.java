@@ -0,0 +1,64 @@
+package com.android.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.android.internal.pantech.led.LedInfo;
+
+import org.junit.Test;
+
+/**
+ * Death handlers of LedManagerService for clients that are already dead when they post.
+ */
+public class LedManagerServiceTest {
+
+    private static int queued(LedManagerService service) {
+        service.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            return service.mLedInfoQueue.toSortedArrayLocked().length;
+        } finally {
+            service.mLock.unlock();
+        }
+    }
+
+    private static int deathHandlers(LedManagerService service) {
+        service.mLock.lock(LedManagerService.LOCK_EXTERNAL);
+        try {
+            assertEquals(service.getDeathTokensLocked().length > 0,
+                    service.getDeathAppIdsLocked().length > 0);
+            return service.getDeathAppIdsLocked().length;
+        } finally {
+            service.mLock.unlock();
+        }
+    }
+
+    @Test
+    public void postFromDeadClientIsDropped() {
+        LedManagerService service = LedBenchEvents.newService(LedInfoQueue.TYPE_HEAP);
+        FakeBinderToken token = new FakeBinderToken();
+        token.die();
+
+        service.postEvent(LedBenchEvents.periodic(3), 0, token);
+        service.postEvents(new LedInfo[] { LedBenchEvents.periodic(4),
+                LedBenchEvents.oneShot(5, 4, 20, 1) }, 0, token);
+
+        assertNull(service.mCurrentLedInfo);
+        assertEquals(0, queued(service));
+        assertEquals(0, deathHandlers(service));
+    }
+
+    @Test
+    public void deadClientDoesNotDropLiveOnes() {
+        LedManagerService service = LedBenchEvents.newService(LedInfoQueue.TYPE_BITMAP);
+        FakeBinderToken live = new FakeBinderToken();
+        FakeBinderToken dead = new FakeBinderToken();
+        dead.die();
+
+        service.postEvent(LedBenchEvents.periodic(2), 0, live);
+        service.postEvent(LedBenchEvents.periodic(6), 0, dead);
+
+        assertEquals(2, service.mCurrentLedInfo.getAppId());
+        assertEquals(1, deathHandlers(service));
+        assertEquals(1, live.getRecipientCount());
+    }
+}
@@ -159,11 +159,49 @@ struct oem_light_state_t {
     int option;
 };
 
+/**
+ * oem_light_device_t versions, in common.version.
+ * OEM_LIGHT_DEVICE_API_VERSION_1 adds oem_play_pattern and oem_stop_pattern.
+ */
+#define OEM_LIGHT_DEVICE_API_VERSION_0  0
+#define OEM_LIGHT_DEVICE_API_VERSION_1  1
+
+/**
+ * A one-shot pattern: frame_count frames of stride ints each.
+ * A frame is its duration in ms followed by one color per led (led1, led2, ...).
+ */
+struct oem_light_pattern_t {
+    int const* frames;
+    int frame_count;
+    int stride;
+    int repeat;
+    int option;
+};
+
 struct oem_light_device_t {
     struct hw_device_t common;
 
     int (*oem_set_light)(struct oem_light_device_t* dev,
             struct oem_light_state_t const* state);
+
+    /**
+     * Play the whole pattern from a HAL thread, frames are timed against absolute
+     * deadlines. Replaces the pattern being played, if any. The frame table is copied,
+     * the caller may free it on return. Each device has its own player. After the last
+     * frame the leds are left as they are, the caller turns them off or sets the next state.
+     *
+     * Returns: 0 on succes, error code on failure.
+     */
+    int (*oem_play_pattern)(struct oem_light_device_t* dev,
+            struct oem_light_pattern_t const* pattern);
+
+    /**
+     * Stop the pattern being played, if any. The leds are left as they are, and the
+     * player writes nothing to them once this returns.
+     *
+     * Returns: 0 on succes, error code on failure.
+     */
+    int (*oem_stop_pattern)(struct oem_light_device_t* dev);
 };
 #endif
 //-US1-CF1
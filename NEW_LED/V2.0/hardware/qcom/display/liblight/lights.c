@@ -19,6 +19,7 @@
 #define LOG_TAG "lights"
 
 #include <cutils/log.h>
+#include <cutils/properties.h>
 
 #include <stdint.h>
 #include <string.h>
@@ -27,6 +28,10 @@
 #include <fcntl.h>
 #include <pthread.h>
 
+#include <stdio.h>
+#include <stdlib.h>
+#include <time.h>
+
 #include <sys/ioctl.h>
 #include <sys/types.h>
 
@@ -62,42 +67,228 @@ char const*const BLUE_LED_FILE
 char const*const LCD_FILE
         = "/sys/class/leds/lcd-backlight/brightness";
 
+#ifdef FW_VENDOR_OEM_LED
+#define OEM_LED_COUNT 7
+
+/*
+ * How a frame reaches the kernel, probed once when the oem led device is opened.
+ *  BATCH      : one attribute takes every channel of every led, "r g b r g b ...\n",
+ *               the whole frame is a single write.
+ *  MULTICOLOR : one multicolor led class device per led, multi_intensity takes
+ *               "r g b\n" so each led changes in a single write. The class has no
+ *               attribute spanning devices, a frame is one write per led.
+ *  CHANNEL    : one mono led class device per led and color, "oem-led1:red" and so on.
+ *               Leds or colors without a device cannot be lit.
+ * None of them use the red, green and blue devices of the battery light.
+ */
+#define OEM_LED_BACKEND_NONE        0
+#define OEM_LED_BACKEND_CHANNEL     1
+#define OEM_LED_BACKEND_MULTICOLOR  2
+#define OEM_LED_BACKEND_BATCH       3
+
+#define OEM_LED_BATCH_PROPERTY "persist.sys.oemled.batch"
+#define OEM_LED_BATCH_DEFAULT "/sys/class/leds/oem-led/frame"
+#define OEM_LED_MULTI_PATH "/sys/class/leds/oem-led%d/multi_intensity"
+#define OEM_LED_MULTI_BRIGHTNESS "/sys/class/leds/oem-led%d/brightness"
+#define OEM_LED_CHANNEL_PATH "/sys/class/leds/oem-led%d:%s/brightness"
+// the paths above with any int and "green"
+#define OEM_LED_PATH_MAX 64
+
+static int g_oem_backend = OEM_LED_BACKEND_NONE;
+// static so the fd cache can keep matching them by pointer
+static char g_batch_path[PROPERTY_VALUE_MAX];
+static char g_multi_paths[OEM_LED_COUNT][OEM_LED_PATH_MAX];
+
+/*
+ * Per led, per channel output level for every 8 bit input level. Gamma, the bin
+ * calibration and the brightness cap are folded into one table offline, so a frame
+ * costs one lookup per channel. Identity until a calibration file is loaded.
+ *
+ * File layout, little endian:
+ *   u32 magic OEM_LED_CALIB_MAGIC, u32 version 1, u32 led count, u32 channel count,
+ *   then led count * channel count tables of 256 bytes, led1 red first.
+ */
+#define OEM_LED_CHANNELS 3
+#define OEM_LED_CALIB_PROPERTY "persist.sys.oemled.calib"
+#define OEM_LED_CALIB_DEFAULT "/system/etc/oemled_calib.bin"
+#define OEM_LED_CALIB_MAGIC 0x42554c4f /* "OLUB" */
+#define OEM_LED_CALIB_VERSION 1
+
+static unsigned char g_lut[OEM_LED_COUNT][OEM_LED_CHANNELS][256];
+
+// CHANNEL backend, empty for a channel without a device
+static char g_channel_paths[OEM_LED_COUNT][OEM_LED_CHANNELS][OEM_LED_PATH_MAX];
+static char const* const g_channel_names[OEM_LED_CHANNELS] = { "red", "green", "blue" };
+#endif
+
 /**
  * device methods
  */
 
+#ifdef FW_VENDOR_OEM_LED
+/*
+ * An oem led device with its own one-shot pattern player, see oem_play_pattern in
+ * hardware/lights.h. dev must stay first, callers only see &dev.
+ * The pattern fields are protected by lock. Lock order: lock, g_lock.
+ */
+struct oem_led_device {
+    struct oem_light_device_t dev;
+
+    pthread_mutex_t lock;
+    pthread_cond_t cond;
+    pthread_t thread;
+    int thread_started;
+    int exit;
+    int playing;
+    int* frames;
+    // start of each frame from the cycle start, frame_count + 1 entries, the last is cycle_ms
+    long long* starts;
+    int frame_count;
+    int stride;
+    int repeat;
+    int option;
+    long long cycle_ms;
+    long long start_ms;
+    // next frame to commit, counted across repeats
+    long long next;
+};
+#endif
+
 void init_globals(void)
 {
     // init the mutex
     pthread_mutex_init(&g_lock, NULL);
 }
 
+/*
+ * sysfs files stay open for the life of the devices, so a brightness write is a
+ * single pwrite instead of open + write + close. Protected by g_lock.
+ * tests/run_syscall_test.sh builds with MAX_CACHED_FDS 0 to count the uncached path.
+ */
+#ifndef MAX_CACHED_FDS
+// the CHANNEL backend alone has OEM_LED_COUNT * 3 files
+#define MAX_CACHED_FDS 32
+#endif
+
+struct cached_fd {
+    char const* path;
+    int fd;
+};
+
+static struct cached_fd g_fds[MAX_CACHED_FDS];
+static int g_fd_count = 0;
+static int g_open_devices = 0;
+
+/* *cached is cleared when the table is full, the caller then closes the fd itself */
 static int
-write_int(char const* path, int value)
+get_fd_locked(char const* path, int* cached)
 {
-    int fd;
+    int i, fd;
+
+    *cached = 1;
+
+    // paths are the constants above, compare pointers first
+    for (i = 0; i < g_fd_count; i++) {
+        if (g_fds[i].path == path)
+            return g_fds[i].fd;
+    }
+    for (i = 0; i < g_fd_count; i++) {
+        if (strcmp(g_fds[i].path, path) == 0)
+            return g_fds[i].fd;
+    }
+
+    fd = open(path, O_RDWR | O_CLOEXEC);
+    if (fd >= 0 && g_fd_count < MAX_CACHED_FDS) {
+        g_fds[g_fd_count].path = path;
+        g_fds[g_fd_count].fd = fd;
+        g_fd_count++;
+    } else {
+        *cached = 0;
+    }
+    return fd;
+}
+
+static void
+drop_fd_locked(int fd)
+{
+    int i;
+
+    for (i = 0; i < g_fd_count; i++) {
+        if (g_fds[i].fd == fd) {
+            g_fds[i] = g_fds[--g_fd_count];
+            break;
+        }
+    }
+    close(fd);
+}
+
+static void
+release_fds_locked(void)
+{
+    while (g_fd_count > 0)
+        close(g_fds[--g_fd_count].fd);
+}
+
+/* decimal value and a newline, returns the length. buffer holds at least 12 chars */
+static int
+format_int(char* buffer, int value)
+{
+    char digits[10];
+    unsigned int v = value < 0 ? -(unsigned int)value : (unsigned int)value;
+    int n = 0, len = 0;
+
+    do {
+        digits[n++] = '0' + v % 10;
+        v /= 10;
+    } while (v);
+    if (value < 0)
+        buffer[len++] = '-';
+    while (n)
+        buffer[len++] = digits[--n];
+    buffer[len++] = '\n';
+    return len;
+}
+
+static int
+write_buf(char const* path, char const* buffer, int bytes)
+{
+    int fd, cached;
     static int already_warned = 0;
 
-    fd = open(path, O_RDWR);
-#ifdef FW_VENDOR_OEM_LED
-    if(DEBUG && (strstr(path, "backlight") == NULL))
-        __android_log_print(ANDROID_LOG_INFO, "OEMLED", "write_int() path:%s, value:0x%02x, fd:%d", path, value, fd); 
-#endif
+    fd = get_fd_locked(path, &cached);
     if (fd >= 0) {
-        char buffer[20];
-        int bytes = sprintf(buffer, "%d\n", value);
-        int amt = write(fd, buffer, bytes);
-        close(fd);
-        return amt == -1 ? -errno : 0;
+        int amt = pwrite(fd, buffer, bytes, 0);
+        int err = amt == -1 ? errno : EIO;
+        if (!cached) {
+            close(fd);
+        } else if (amt == -1) {
+            // the node may be gone (driver reload), reopen next time
+            drop_fd_locked(fd);
+        }
+        // sysfs takes a store whole, a short write did not set the value
+        return amt == bytes ? 0 : -err;
     } else {
         if (already_warned == 0) {
-            ALOGE("write_int failed to open %s\n", path);
+            ALOGE("write_buf failed to open %s\n", path);
             already_warned = 1;
         }
         return -errno;
     }
 }
 
+static int
+write_int(char const* path, int value)
+{
+    char buffer[12];
+    int bytes = format_int(buffer, value);
+
+#ifdef FW_VENDOR_OEM_LED
+    if(DEBUG && (strstr(path, "backlight") == NULL))
+        __android_log_print(ANDROID_LOG_INFO, "OEMLED", "write_int() path:%s, value:0x%02x", path, value); 
+#endif
+    return write_buf(path, buffer, bytes);
+}
+
 static int
 is_lit(struct light_state_t const* state)
 {
@@ -273,34 +464,408 @@ set_light_attention(struct light_device_t* dev,
 }
 
 #ifdef FW_VENDOR_OEM_LED
+/* appends "r g b" of the color through the tables of the led, each followed by sep,
+ * returns the new length */
+static int
+format_rgb(char* buffer, int len, int led, unsigned int color, char sep)
+{
+    len += format_int(buffer + len, g_lut[led][0][(color >> 16) & 0xFF]);
+    buffer[len - 1] = ' ';
+    len += format_int(buffer + len, g_lut[led][1][(color >> 8) & 0xFF]);
+    buffer[len - 1] = ' ';
+    len += format_int(buffer + len, g_lut[led][2][color & 0xFF]);
+    buffer[len - 1] = sep;
+    return len;
+}
+
+static void
+reset_calibration_locked(void)
+{
+    int led, channel, level;
+
+    for (led = 0; led < OEM_LED_COUNT; led++)
+        for (channel = 0; channel < OEM_LED_CHANNELS; channel++)
+            for (level = 0; level < 256; level++)
+                g_lut[led][channel][level] = level;
+}
+
+static void
+load_calibration_locked(void)
+{
+    char path[PROPERTY_VALUE_MAX];
+    uint32_t header[4];
+    int fd, amt;
+
+    reset_calibration_locked();
+
+    property_get(OEM_LED_CALIB_PROPERTY, path, OEM_LED_CALIB_DEFAULT);
+    fd = open(path, O_RDONLY | O_CLOEXEC);
+    if (fd < 0)
+        return;
+
+    amt = read(fd, header, sizeof(header));
+    if (amt != sizeof(header)
+            || header[0] != OEM_LED_CALIB_MAGIC
+            || header[1] != OEM_LED_CALIB_VERSION
+            || header[2] != OEM_LED_COUNT
+            || header[3] != OEM_LED_CHANNELS) {
+        ALOGE("oem led: bad calibration header in %s", path);
+        close(fd);
+        return;
+    }
+    amt = read(fd, g_lut, sizeof(g_lut));
+    close(fd);
+    if (amt != sizeof(g_lut)) {
+        ALOGE("oem led: short calibration file %s", path);
+        reset_calibration_locked();
+        return;
+    }
+    ALOGI("oem led: calibration loaded from %s", path);
+}
+
+/* writes the whole buffer to a file that is written once, not kept in the fd cache */
+static int
+write_file_once(char const* path, char const* buffer, int bytes)
+{
+    int fd, amt, err;
+
+    fd = open(path, O_WRONLY | O_CLOEXEC);
+    if (fd < 0)
+        return -errno;
+    amt = write(fd, buffer, bytes);
+    err = amt == -1 ? errno : EIO;
+    close(fd);
+    return amt == bytes ? 0 : -err;
+}
+
+static void
+probe_oem_backend_locked(void)
+{
+    char brightness[OEM_LED_PATH_MAX];
+    int i, channel, count, err;
+
+    property_get(OEM_LED_BATCH_PROPERTY, g_batch_path, OEM_LED_BATCH_DEFAULT);
+    if (g_batch_path[0] && access(g_batch_path, W_OK) == 0) {
+        g_oem_backend = OEM_LED_BACKEND_BATCH;
+        ALOGI("oem led: batch attribute %s", g_batch_path);
+        return;
+    }
+
+    for (i = 0; i < OEM_LED_COUNT; i++) {
+        count = snprintf(g_multi_paths[i], sizeof(g_multi_paths[i]), OEM_LED_MULTI_PATH, i + 1);
+        if (count < 0 || count >= (int)sizeof(g_multi_paths[i])
+                || access(g_multi_paths[i], W_OK) != 0)
+            break;
+    }
+    if (i == OEM_LED_COUNT) {
+        // the color lives in multi_intensity, keep the led brightness at its max.
+        // the kernel clamps to max_brightness.
+        for (i = 0; i < OEM_LED_COUNT; i++) {
+            count = snprintf(brightness, sizeof(brightness), OEM_LED_MULTI_BRIGHTNESS, i + 1);
+            if (count < 0 || count >= (int)sizeof(brightness))
+                continue;
+            err = write_file_once(brightness, "255\n", 4);
+            if (err)
+                ALOGE("oem led: %s: %s", brightness, strerror(-err));
+        }
+        g_oem_backend = OEM_LED_BACKEND_MULTICOLOR;
+        ALOGI("oem led: multicolor class devices");
+        return;
+    }
+
+    count = 0;
+    for (i = 0; i < OEM_LED_COUNT; i++) {
+        for (channel = 0; channel < OEM_LED_CHANNELS; channel++) {
+            char* path = g_channel_paths[i][channel];
+            int n = snprintf(path, OEM_LED_PATH_MAX, OEM_LED_CHANNEL_PATH,
+                    i + 1, g_channel_names[channel]);
+            if (n < 0 || n >= OEM_LED_PATH_MAX || access(path, W_OK) != 0) {
+                path[0] = '\0';
+                continue;
+            }
+            count++;
+        }
+    }
+    if (count > 0) {
+        g_oem_backend = OEM_LED_BACKEND_CHANNEL;
+        ALOGI("oem led: %d mono class devices", count);
+        return;
+    }
+
+    g_oem_backend = OEM_LED_BACKEND_NONE;
+    ALOGE("oem led: no device found");
+}
+
+static int
+write_frame_locked(struct oem_light_state_t const* state)
+{
+    unsigned int colors[OEM_LED_COUNT];
+    // 3 channels of at most "255 " per led, plus the newline
+    char buffer[OEM_LED_COUNT * 3 * 4 + 1];
+    int i, channel, len, ret, err = 0;
+
+    colors[0] = state->led1;
+    colors[1] = state->led2;
+    colors[2] = state->led3;
+    colors[3] = state->led4;
+    colors[4] = state->led5;
+    colors[5] = state->led6;
+    colors[6] = state->led7;
+
+    switch (g_oem_backend) {
+        case OEM_LED_BACKEND_BATCH:
+            len = 0;
+            for (i = 0; i < OEM_LED_COUNT; i++)
+                len = format_rgb(buffer, len, i, colors[i], i == OEM_LED_COUNT - 1 ? '\n' : ' ');
+            return write_buf(g_batch_path, buffer, len);
+        case OEM_LED_BACKEND_MULTICOLOR:
+            for (i = 0; i < OEM_LED_COUNT; i++) {
+                len = format_rgb(buffer, 0, i, colors[i], '\n');
+                ret = write_buf(g_multi_paths[i], buffer, len);
+                if (ret && !err)
+                    err = ret;
+            }
+            return err;
+        case OEM_LED_BACKEND_CHANNEL:
+            for (i = 0; i < OEM_LED_COUNT; i++) {
+                for (channel = 0; channel < OEM_LED_CHANNELS; channel++) {
+                    int value = (colors[i] >> (16 - 8 * channel)) & 0xFF;
+                    if (g_channel_paths[i][channel][0] == '\0') {
+                        // the rest of the frame still goes out
+                        if (value && !err)
+                            err = -ENODEV;
+                        continue;
+                    }
+                    ret = write_int(g_channel_paths[i][channel], g_lut[i][channel][value]);
+                    if (ret && !err)
+                        err = ret;
+                }
+            }
+            return err;
+        default:
+            return -ENODEV;
+    }
+}
+
 static int
 set_light_oem_led(struct oem_light_device_t* dev,
                            struct oem_light_state_t const* state)
 {
+    int err;
+
     if(DEBUG)
         __android_log_print(ANDROID_LOG_INFO, "OEMLED", "------------begin set_light_oem_led()-----------\n");
     pthread_mutex_lock(&g_lock);
 
-    __android_log_print(ANDROID_LOG_ERROR, "OEMLED", "set_light_oem_led: led1 : 0x%08x, led2 : 0x%08x, led3 : 0x%08x, led4 : 0x%08x, led5 : 0x%08x, led6 : 0x%08x, led7 : 0x%08x, onMs: %d, offMs: %d, option: %d", state->led1, state->led2, state->led3, state->led4, state->led5, state->led6, state->led7, state->flashOnMS, state->flashOffMS, state->option);
+    if(DEBUG)
+        __android_log_print(ANDROID_LOG_INFO, "OEMLED", "set_light_oem_led: led1 : 0x%08x, led2 : 0x%08x, led3 : 0x%08x, led4 : 0x%08x, led5 : 0x%08x, led6 : 0x%08x, led7 : 0x%08x, onMs: %d, offMs: %d, option: %d", state->led1, state->led2, state->led3, state->led4, state->led5, state->led6, state->led7, state->flashOnMS, state->flashOffMS, state->option);
 
-    /*
-    write_int(RED_LED_FILE, red);
-    write_int(GREEN_LED_FILE, green);
-    write_int(BLUE_LED_FILE, blue);
-    */
+    err = write_frame_locked(state);
 
     if(DEBUG)
         __android_log_print(ANDROID_LOG_INFO, "OEMLED", "------------end. set_light_oem_led()-----------\n");
     pthread_mutex_unlock(&g_lock);
+    return err;
+}
+#endif
+
+#ifdef FW_VENDOR_OEM_LED
+static long long
+now_ms(void)
+{
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (long long)ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+}
+
+static void
+ms_to_timespec(long long ms, struct timespec* ts)
+{
+    ts->tv_sec = ms / 1000;
+    ts->tv_nsec = (ms % 1000) * 1000000;
+}
+
+/* start time of a frame counted across repeats, from the pattern start */
+static long long
+pattern_frame_start_locked(struct oem_led_device* led, long long frame)
+{
+    return (frame / led->frame_count) * led->cycle_ms + led->starts[frame % led->frame_count];
+}
+
+static void
+pattern_commit_locked(struct oem_led_device* led, int const* colors, int count)
+{
+    struct oem_light_state_t state;
+    unsigned int* leds[] = { &state.led1, &state.led2, &state.led3, &state.led4,
+            &state.led5, &state.led6, &state.led7 };
+    int i;
+
+    memset(&state, 0, sizeof(state));
+    for (i = 0; i < count && i < (int)(sizeof(leds) / sizeof(leds[0])); i++)
+        *leds[i] = colors[i];
+    state.option = led->option;
+    set_light_oem_led(&led->dev, &state);
+}
+
+static int
+pattern_wait_until_locked(struct oem_led_device* led, long long deadline_ms)
+{
+    struct timespec deadline;
+    ms_to_timespec(deadline_ms, &deadline);
+#ifdef HAVE_PTHREAD_COND_TIMEDWAIT_MONOTONIC
+    return pthread_cond_timedwait_monotonic_np(&led->cond, &led->lock, &deadline);
+#else
+    return pthread_cond_timedwait(&led->cond, &led->lock, &deadline);
+#endif
+}
+
+/*
+ * Sleeps on led->cond until the next frame deadline. play and stop signal the
+ * condition, so a new pattern or a stop is picked up at once. A frame whose successor
+ * is already due is skipped, so the timeline does not drift. The leds are not touched
+ * when the pattern ends, the caller owns them again.
+ */
+static void*
+pattern_thread_loop(void* arg)
+{
+    struct oem_led_device* led = (struct oem_led_device*)arg;
+
+    pthread_mutex_lock(&led->lock);
+    while (!led->exit) {
+        long long now, end, frame;
+
+        if (!led->playing) {
+            pthread_cond_wait(&led->cond, &led->lock);
+            continue;
+        }
+
+        now = now_ms();
+        end = led->start_ms + led->cycle_ms * led->repeat;
+        if (now >= end) {
+            led->playing = 0;
+            continue;
+        }
+
+        frame = led->next;
+        if (now < led->start_ms + pattern_frame_start_locked(led, frame)) {
+            pattern_wait_until_locked(led, led->start_ms + pattern_frame_start_locked(led, frame));
+            continue;
+        }
+        while (frame + 1 < (long long)led->frame_count * led->repeat
+                && now >= led->start_ms + pattern_frame_start_locked(led, frame + 1))
+            frame++;
+
+        pattern_commit_locked(led,
+                led->frames + (frame % led->frame_count) * led->stride + 1,
+                led->stride - 1);
+        led->next = frame + 1;
+    }
+    pthread_mutex_unlock(&led->lock);
+    return NULL;
+}
+
+static int
+play_pattern_oem_led(struct oem_light_device_t* dev,
+        struct oem_light_pattern_t const* pattern)
+{
+    struct oem_led_device* led = (struct oem_led_device*)dev;
+    int* frames;
+    long long* starts;
+    long long cycle = 0;
+    int i, size;
+
+    if (pattern == NULL || pattern->frames == NULL || pattern->frame_count <= 0
+            || pattern->stride < 2 || pattern->repeat <= 0)
+        return -EINVAL;
+
+    size = pattern->frame_count * pattern->stride;
+    frames = malloc(size * sizeof(int));
+    if (frames == NULL)
+        return -ENOMEM;
+    starts = malloc((pattern->frame_count + 1) * sizeof(long long));
+    if (starts == NULL) {
+        free(frames);
+        return -ENOMEM;
+    }
+    memcpy(frames, pattern->frames, size * sizeof(int));
+    // the player looks frame starts up on every wake up, sum the durations once
+    for (i = 0; i < pattern->frame_count; i++) {
+        starts[i] = cycle;
+        cycle += frames[i * pattern->stride];
+    }
+    starts[i] = cycle;
+    if (cycle <= 0) {
+        free(starts);
+        free(frames);
+        return -EINVAL;
+    }
+
+    pthread_mutex_lock(&led->lock);
+    if (!led->thread_started) {
+        pthread_attr_t attr;
+        int err;
+        pthread_attr_init(&attr);
+        err = pthread_create(&led->thread, &attr, pattern_thread_loop, led);
+        pthread_attr_destroy(&attr);
+        if (err != 0) {
+            pthread_mutex_unlock(&led->lock);
+            free(starts);
+            free(frames);
+            return -err;
+        }
+        led->thread_started = 1;
+    }
+    free(led->frames);
+    free(led->starts);
+    led->frames = frames;
+    led->starts = starts;
+    led->frame_count = pattern->frame_count;
+    led->stride = pattern->stride;
+    led->repeat = pattern->repeat;
+    led->option = pattern->option;
+    led->cycle_ms = cycle;
+    led->start_ms = now_ms();
+    led->next = 0;
+    led->playing = 1;
+    pthread_cond_signal(&led->cond);
+    pthread_mutex_unlock(&led->lock);
+    return 0;
+}
+
+/*
+ * Once this returns the player thread writes nothing more, a frame it was committing
+ * is done since it holds led->lock for the write. The leds are left as they are.
+ */
+static int
+stop_pattern_oem_led(struct oem_light_device_t* dev)
+{
+    struct oem_led_device* led = (struct oem_led_device*)dev;
+
+    pthread_mutex_lock(&led->lock);
+    if (led->playing) {
+        led->playing = 0;
+        pthread_cond_signal(&led->cond);
+    }
+    pthread_mutex_unlock(&led->lock);
     return 0;
 }
 #endif
 
 /** Close the lights device */
+static void
+release_device(void)
+{
+    pthread_mutex_lock(&g_lock);
+    if (--g_open_devices == 0)
+        release_fds_locked();
+    pthread_mutex_unlock(&g_lock);
+}
+
 static int
 close_lights(struct light_device_t *dev)
 {
     if (dev) {
+        release_device();
         free(dev);
     }
     return 0;
@@ -309,8 +874,22 @@ close_lights(struct light_device_t *dev)
 static int
 oem_close_lights(struct oem_light_device_t *dev)
 {
-    if (dev) {
-        free(dev);
+    struct oem_led_device* led = (struct oem_led_device*)dev;
+
+    if (led) {
+        pthread_mutex_lock(&led->lock);
+        led->playing = 0;
+        led->exit = 1;
+        pthread_cond_signal(&led->cond);
+        pthread_mutex_unlock(&led->lock);
+        if (led->thread_started)
+            pthread_join(led->thread, NULL);
+        free(led->frames);
+        free(led->starts);
+        pthread_cond_destroy(&led->cond);
+        pthread_mutex_destroy(&led->lock);
+        release_device();
+        free(led);
     }
     return 0;
 }
@@ -356,14 +935,37 @@ static int open_lights(const struct hw_module_t* module, char const* name,
 
         pthread_once(&g_init, init_globals);
 
-        struct oem_light_device_t *dev = malloc(sizeof(struct oem_light_device_t));
-        memset(dev, 0, sizeof(*dev));
+        struct oem_led_device *led = malloc(sizeof(struct oem_led_device));
+        if (led == NULL)
+            return -ENOMEM;
+        memset(led, 0, sizeof(*led));
+        pthread_mutex_init(&led->lock, NULL);
+#ifdef HAVE_PTHREAD_COND_TIMEDWAIT_MONOTONIC
+        pthread_cond_init(&led->cond, NULL);
+#else
+        pthread_condattr_t attr;
+        pthread_condattr_init(&attr);
+        pthread_condattr_setclock(&attr, CLOCK_MONOTONIC);
+        pthread_cond_init(&led->cond, &attr);
+        pthread_condattr_destroy(&attr);
+#endif
+        struct oem_light_device_t *dev = &led->dev;
 
         dev->common.tag = HARDWARE_DEVICE_TAG;
-        dev->common.version = 0;
+        dev->common.version = OEM_LIGHT_DEVICE_API_VERSION_1;
         dev->common.module = (struct hw_module_t*)module;
         dev->common.close = (int (*)(struct hw_device_t*))oem_close_lights;
         dev->oem_set_light = oem_set_light;
+        dev->oem_play_pattern = play_pattern_oem_led;
+        dev->oem_stop_pattern = stop_pattern_oem_led;
+
+        pthread_mutex_lock(&g_lock);
+        g_open_devices++;
+        if (g_oem_backend == OEM_LED_BACKEND_NONE) {
+            load_calibration_locked();
+            probe_oem_backend_locked();
+        }
+        pthread_mutex_unlock(&g_lock);
 
         *device = (struct hw_device_t*)dev;
         return 0;
@@ -384,6 +986,10 @@ static int open_lights(const struct hw_module_t* module, char const* name,
     dev->common.close = (int (*)(struct hw_device_t*))close_lights;
     dev->set_light = set_light;
 
+    pthread_mutex_lock(&g_lock);
+    g_open_devices++;
+    pthread_mutex_unlock(&g_lock);
+
     *device = (struct hw_device_t*)dev;
     return 0;
 }
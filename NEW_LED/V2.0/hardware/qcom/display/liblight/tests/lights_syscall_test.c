@@ -0,0 +1,217 @@
+/*
+ * Host test of the oem led frame path of lights.c: counts the open and write calls a
+ * committed frame costs, on a fake sysfs tree in a temporary directory.
+ *
+ * lights.c is built into this file with open, access, write and pwrite routed to the
+ * counting wrappers below, which also move /sys/class/leds/ under the fake tree.
+ * Built and run by run_syscall_test.sh, once with the fd cache and once with
+ * MAX_CACHED_FDS 0, the open + write + close per write it replaced.
+ *
+ *   lights_syscall_test batch|multicolor|channel|partial
+ *
+ * partial is the channel backend with the led1 devices only, frames lighting other
+ * leds must fail. The red, green and blue devices of the battery light are in the tree
+ * for every backend and must not be opened.
+ * Prints one line per run and exits non zero if the counts are not the expected ones.
+ */
+
+#include <errno.h>
+#include <fcntl.h>
+#include <stdarg.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <unistd.h>
+#include <sys/stat.h>
+#include <sys/types.h>
+
+#define SYSFS_LEDS "/sys/class/leds/"
+#define FRAMES 100
+
+static char g_root[64];
+static int g_counting = 0;
+static int g_opens = 0;
+static int g_writes = 0;
+static int g_shared_opens = 0;
+
+int __android_log_print(int prio, const char* tag, const char* fmt, ...)
+{
+    return 0;
+}
+
+int property_get(const char* key, char* value, const char* default_value)
+{
+    // the defaults, the led ones point into /sys/class/leds/ and get moved
+    strcpy(value, default_value);
+    return strlen(value);
+}
+
+static char const* fake_path(char const* path, char* buffer, size_t size)
+{
+    if (strncmp(path, SYSFS_LEDS, strlen(SYSFS_LEDS)) != 0)
+        return path;
+    snprintf(buffer, size, "%s/%s", g_root, path + strlen(SYSFS_LEDS));
+    return buffer;
+}
+
+static int test_open(char const* path, int flags, ...)
+{
+    char buffer[256];
+    if (strcmp(path, SYSFS_LEDS "red/brightness") == 0
+            || strcmp(path, SYSFS_LEDS "green/brightness") == 0
+            || strcmp(path, SYSFS_LEDS "blue/brightness") == 0)
+        g_shared_opens++;
+    if (g_counting)
+        g_opens++;
+    return open(fake_path(path, buffer, sizeof(buffer)), flags);
+}
+
+static int test_access(char const* path, int mode)
+{
+    char buffer[256];
+    return access(fake_path(path, buffer, sizeof(buffer)), mode);
+}
+
+static ssize_t test_write(int fd, void const* buf, size_t count)
+{
+    if (g_counting)
+        g_writes++;
+    return write(fd, buf, count);
+}
+
+static ssize_t test_pwrite(int fd, void const* buf, size_t count, off_t offset)
+{
+    if (g_counting)
+        g_writes++;
+    return pwrite(fd, buf, count, offset);
+}
+
+// function-like, so the open member of hw_module_methods_t is left alone
+#define open(...) test_open(__VA_ARGS__)
+#define access(...) test_access(__VA_ARGS__)
+#define write(...) test_write(__VA_ARGS__)
+#define pwrite(...) test_pwrite(__VA_ARGS__)
+#include "../lights.c"
+#undef open
+#undef access
+#undef write
+#undef pwrite
+
+static void make_file(char const* relative)
+{
+    char path[256];
+    char* slash;
+    int fd;
+
+    snprintf(path, sizeof(path), "%s/%s", g_root, relative);
+    slash = strrchr(path, '/');
+    *slash = '\0';
+    mkdir(path, 0755);
+    *slash = '/';
+    fd = open(path, O_CREAT | O_WRONLY | O_TRUNC, 0644);
+    if (fd < 0) {
+        perror(path);
+        exit(2);
+    }
+    close(fd);
+}
+
+static void remove_tree(void)
+{
+    char command[128];
+    snprintf(command, sizeof(command), "rm -rf '%s'", g_root);
+    system(command);
+}
+
+int main(int argc, char** argv)
+{
+    struct hw_device_t* device;
+    struct oem_light_device_t* dev;
+    struct oem_light_state_t state;
+    char const* backend = argc > 1 ? argv[1] : "";
+    int expected_backend, expected_failures, files, i, failures, expected_opens, ok;
+    char name[64];
+
+    strcpy(g_root, "/tmp/lights_syscall_XXXXXX");
+    if (mkdtemp(g_root) == NULL) {
+        perror("mkdtemp");
+        return 2;
+    }
+
+    make_file("red/brightness");
+    make_file("green/brightness");
+    make_file("blue/brightness");
+    expected_failures = 0;
+
+    if (strcmp(backend, "batch") == 0) {
+        make_file("oem-led/frame");
+        expected_backend = OEM_LED_BACKEND_BATCH;
+        files = 1;
+    } else if (strcmp(backend, "multicolor") == 0) {
+        for (i = 1; i <= OEM_LED_COUNT; i++) {
+            snprintf(name, sizeof(name), "oem-led%d/multi_intensity", i);
+            make_file(name);
+            snprintf(name, sizeof(name), "oem-led%d/brightness", i);
+            make_file(name);
+        }
+        expected_backend = OEM_LED_BACKEND_MULTICOLOR;
+        files = OEM_LED_COUNT;
+    } else if (strcmp(backend, "channel") == 0 || strcmp(backend, "partial") == 0) {
+        int leds = strcmp(backend, "channel") == 0 ? OEM_LED_COUNT : 1;
+        for (i = 1; i <= leds; i++) {
+            snprintf(name, sizeof(name), "oem-led%d:red/brightness", i);
+            make_file(name);
+            snprintf(name, sizeof(name), "oem-led%d:green/brightness", i);
+            make_file(name);
+            snprintf(name, sizeof(name), "oem-led%d:blue/brightness", i);
+            make_file(name);
+        }
+        expected_backend = OEM_LED_BACKEND_CHANNEL;
+        files = leds * 3;
+        // every frame but the first lights led2 or led7
+        if (leds < OEM_LED_COUNT)
+            expected_failures = FRAMES - 1;
+    } else {
+        fprintf(stderr, "usage: %s batch|multicolor|channel|partial\n", argv[0]);
+        remove_tree();
+        return 2;
+    }
+
+    if (HAL_MODULE_INFO_SYM.methods->open(&HAL_MODULE_INFO_SYM, LIGHT_ID_OEM_LED, &device) != 0) {
+        fprintf(stderr, "open failed\n");
+        remove_tree();
+        return 2;
+    }
+    dev = (struct oem_light_device_t*)device;
+
+    // only the frames, not the backend probe of the open
+    g_counting = 1;
+    memset(&state, 0, sizeof(state));
+    failures = 0;
+    for (i = 0; i < FRAMES; i++) {
+        state.led1 = 0xff000000 | (i * 0x010203);
+        state.led2 = 0xff000000 | (i * 0x030201);
+        state.led7 = 0xff000000 | i;
+        if (dev->oem_set_light(dev, &state) != 0)
+            failures++;
+    }
+    g_counting = 0;
+    device->close(device);
+    remove_tree();
+
+    // cached: each file is opened by the first frame only
+    expected_opens = MAX_CACHED_FDS >= files ? files : FRAMES * files;
+    ok = g_oem_backend == expected_backend && failures == expected_failures
+            && g_shared_opens == 0 && g_opens == expected_opens && g_writes == FRAMES * files;
+    printf("%-10s  fd cache %-3s  frames %d  open %5d (%.2f/frame)  write %5d (%.2f/frame)  %s\n",
+            backend, MAX_CACHED_FDS > 0 ? "on" : "off", FRAMES,
+            g_opens, (double)g_opens / FRAMES, g_writes, (double)g_writes / FRAMES,
+            ok ? "ok" : "FAILED");
+    if (!ok)
+        printf("  expected backend %d open %d write %d failures %d, got backend %d failures %d"
+                " battery light opens %d\n",
+                expected_backend, expected_opens, FRAMES * files, expected_failures,
+                g_oem_backend, failures, g_shared_opens);
+    return ok ? 0 : 1;
+}
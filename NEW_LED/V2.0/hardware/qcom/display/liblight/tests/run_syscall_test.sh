@@ -0,0 +1,26 @@
+#!/bin/sh
+#
+# Builds lights.c into tests/lights_syscall_test.c on the host, with and without the
+# sysfs fd cache, and counts the open and write calls per committed frame on a fake
+# sysfs tree for each oem led backend.
+#
+#   hardware/qcom/display/liblight/tests/run_syscall_test.sh
+#
+# CC picks the compiler, cc by default. Exits non zero if a count is not the expected one.
+
+set -e
+DIR=$(cd "$(dirname "$0")" && pwd)
+CC=${CC:-cc}
+OUT=$(mktemp -d /tmp/lights_syscall_test.XXXXXX)
+trap 'rm -rf "$OUT"' EXIT
+
+CFLAGS="-O0 -U_FORTIFY_SOURCE -I$DIR/stubs -I$DIR/../../../../libhardware/include"
+$CC $CFLAGS -DMAX_CACHED_FDS=0 -o "$OUT/uncached" "$DIR/lights_syscall_test.c" -lpthread
+$CC $CFLAGS -o "$OUT/cached" "$DIR/lights_syscall_test.c" -lpthread
+
+status=0
+for backend in batch multicolor channel partial; do
+    "$OUT/uncached" $backend || status=1
+    "$OUT/cached" $backend || status=1
+done
+exit $status
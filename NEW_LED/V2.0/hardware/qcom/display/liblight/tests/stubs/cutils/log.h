@@ -0,0 +1,18 @@
+/* Host stub for tests/lights_syscall_test.c, logs go through the test's __android_log_print */
+#ifndef LIGHTS_TEST_CUTILS_LOG_H
+#define LIGHTS_TEST_CUTILS_LOG_H
+
+#define ANDROID_LOG_DEBUG 3
+#define ANDROID_LOG_INFO 4
+#define ANDROID_LOG_WARN 5
+#define ANDROID_LOG_ERROR 6
+
+int __android_log_print(int prio, const char* tag, const char* fmt, ...);
+
+#define ALOGV(...) do { } while (0)
+#define ALOGD(...) __android_log_print(ANDROID_LOG_DEBUG, LOG_TAG, __VA_ARGS__)
+#define ALOGI(...) __android_log_print(ANDROID_LOG_INFO, LOG_TAG, __VA_ARGS__)
+#define ALOGW(...) __android_log_print(ANDROID_LOG_WARN, LOG_TAG, __VA_ARGS__)
+#define ALOGE(...) __android_log_print(ANDROID_LOG_ERROR, LOG_TAG, __VA_ARGS__)
+
+#endif
@@ -0,0 +1,9 @@
+/* Host stub for tests/lights_syscall_test.c, properties come from the test */
+#ifndef LIGHTS_TEST_CUTILS_PROPERTIES_H
+#define LIGHTS_TEST_CUTILS_PROPERTIES_H
+
+#define PROPERTY_VALUE_MAX 92
+
+int property_get(const char* key, char* value, const char* default_value);
+
+#endif